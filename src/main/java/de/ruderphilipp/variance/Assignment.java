@@ -45,7 +45,7 @@ class Assignment implements Expression {
     public boolean equals(Object obj) {
         if (obj instanceof Assignment) {
             Assignment other = (Assignment) obj;
-            if (other.getFamily().equals(this.getFamily()) ||
+            if (other.getFamily().equals(this.getFamily()) &&
                     other.getValue().equals(this.getValue())) {
                 return true;
             }
@@ -0,0 +1,112 @@
+package de.ruderphilipp.variance;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A thread-safe cache that keeps at most about a given number of entries.
+ * <p>
+ * The keys are spread over stripes, each with a young and an old generation. New and recently used entries live in
+ * the young generation; once it is full, it becomes the old generation and the previous old generation is dropped.
+ * Thus entries that were not used for the longest time get evicted first. Neither reading nor adding takes a lock
+ * besides the ones of the underlying {@link ConcurrentHashMap}s.
+ */
+class BoundedCache<K, V> {
+    private final Stripe<K, V>[] stripes;
+    private final int generationSize;
+
+    /**
+     * @param maxSize number of entries kept at most (slightly more while several threads add entries at the same
+     *                time), 0 to not cache anything
+     */
+    @SuppressWarnings("unchecked")
+    BoundedCache(final int maxSize) {
+        if (maxSize < 0) {
+            throw new IllegalArgumentException("Cache size must not be negative!");
+        }
+        int wanted = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors()) * 2 - 1);
+        // every stripe holds two generations with at least one entry each
+        int count = Math.max(1, Math.min(wanted, Integer.highestOneBit(Math.max(1, maxSize / 2))));
+        this.stripes = new Stripe[count];
+        for (int i = 0; i < count; i++) {
+            stripes[i] = new Stripe<>();
+        }
+        this.generationSize = (maxSize == 0) ? 0 : Math.max(1, maxSize / (2 * count));
+    }
+
+    /**
+     * @return the cached value or NULL
+     */
+    V get(final K key) {
+        Stripe<K, V> stripe = stripe(key);
+        Generations<K, V> g = stripe.generations.get();
+        V result = g.young.get(key);
+        if (null == result) {
+            result = g.old.get(key);
+            if (null != result) {
+                // still in use, so it should survive the next rotation
+                add(stripe, g, key, result);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Adds a value unless there already is one for the key.
+     *
+     * @return the value that is cached now, i.e. either the existing or the given one
+     */
+    V intern(final K key, final V value) {
+        V existing = get(key);
+        if (null != existing) {
+            return existing;
+        }
+        if (generationSize == 0) {
+            return value;
+        }
+        Stripe<K, V> stripe = stripe(key);
+        return add(stripe, stripe.generations.get(), key, value);
+    }
+
+    /**
+     * @return number of cached entries
+     */
+    int size() {
+        int result = 0;
+        for (Stripe<K, V> stripe : stripes) {
+            Generations<K, V> g = stripe.generations.get();
+            result += g.young.size() + g.old.size();
+        }
+        return result;
+    }
+
+    private V add(final Stripe<K, V> stripe, final Generations<K, V> g, final K key, final V value) {
+        V existing = g.young.putIfAbsent(key, value);
+        if (g.young.size() >= generationSize) {
+            // only one thread rotates, the others keep using the generations they have seen
+            stripe.generations.compareAndSet(g, new Generations<>(new ConcurrentHashMap<>(), g.young));
+        }
+        return (null == existing) ? value : existing;
+    }
+
+    private Stripe<K, V> stripe(final K key) {
+        int h = key.hashCode();
+        return stripes[(h ^ (h >>> 16)) & (stripes.length - 1)];
+    }
+
+    private static final class Stripe<K, V> {
+        final AtomicReference<Generations<K, V>> generations =
+                new AtomicReference<>(new Generations<>(new ConcurrentHashMap<>(), new ConcurrentHashMap<>()));
+    }
+
+    private static final class Generations<K, V> {
+        final ConcurrentMap<K, V> young;
+        final ConcurrentMap<K, V> old;
+
+        Generations(final ConcurrentMap<K, V> young, final ConcurrentMap<K, V> old) {
+            this.young = young;
+            this.old = old;
+        }
+    }
+}
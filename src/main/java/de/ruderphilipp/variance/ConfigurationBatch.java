@@ -0,0 +1,152 @@
+package de.ruderphilipp.variance;
+
+import java.util.*;
+
+/**
+ * Up to 64 configurations that get evaluated at once.
+ * <p>
+ * Every configuration is one bit of a <tt>long</tt>: for each pair of option family and value there is a mask with the
+ * bits of all configurations having this value. Evaluating an expression is then just a combination of these masks with
+ * <tt>&amp;</tt> and <tt>|</tt>.
+ */
+class ConfigurationBatch {
+    static final int MAX_SIZE = Long.SIZE;
+
+    private final int size;
+    private final Map<String, Map<String, Long>> masks = new HashMap<>();
+    private final Map<String, String[]> values = new HashMap<>();
+
+    ConfigurationBatch(final int size) {
+        if (size < 1 || size > MAX_SIZE) {
+            throw new IllegalArgumentException("Batch size must be between 1 and " + MAX_SIZE + "!");
+        }
+        this.size = size;
+    }
+
+    /**
+     * Creates a batch from the given configurations (option family to chosen value).
+     */
+    static ConfigurationBatch of(final List<Map<String, String>> configurations) {
+        if (null == configurations) {
+            throw new IllegalArgumentException("Configurations must not be NULL!");
+        }
+        ConfigurationBatch batch = new ConfigurationBatch(configurations.size());
+        for (int i = 0; i < configurations.size(); i++) {
+            for (Map.Entry<String, String> entry : configurations.get(i).entrySet()) {
+                batch.set(i, entry.getKey(), entry.getValue());
+            }
+        }
+        return batch;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * @return a mask with one bit for each configuration of this batch
+     */
+    public long getAll() {
+        return (size == MAX_SIZE) ? -1L : (1L << size) - 1;
+    }
+
+    /**
+     * Chooses the value of an option family for one configuration.
+     */
+    void set(final int index, final String family, final String value) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("No configuration " + index + " in batch of size " + size);
+        }
+        String[] familyValues = values.computeIfAbsent(family, k -> new String[size]);
+        String old = familyValues[index];
+        if (null != old) {
+            masks.get(family).merge(old, ~(1L << index), (a, b) -> a & b);
+        }
+        familyValues[index] = value;
+        masks.computeIfAbsent(family, k -> new HashMap<>()).merge(value, 1L << index, (a, b) -> a | b);
+    }
+
+    /**
+     * Chooses the values of an option family for all configurations at once.
+     *
+     * @param candidates possible values
+     * @param chosen     for every configuration the index of its value in the candidates
+     */
+    void set(final String family, final List<String> candidates, final int[] chosen) {
+        if (chosen.length != size) {
+            throw new IllegalArgumentException("Need exactly one value per configuration!");
+        }
+        long[] candidateMasks = new long[candidates.size()];
+        String[] familyValues = new String[size];
+        for (int i = 0; i < size; i++) {
+            candidateMasks[chosen[i]] |= 1L << i;
+            familyValues[i] = candidates.get(chosen[i]);
+        }
+        Map<String, Long> familyMasks = new HashMap<>();
+        for (int c = 0; c < candidateMasks.length; c++) {
+            if (candidateMasks[c] != 0L) {
+                familyMasks.merge(candidates.get(c), candidateMasks[c], (a, b) -> a | b);
+            }
+        }
+        masks.put(family, familyMasks);
+        values.put(family, familyValues);
+    }
+
+    /**
+     * @return the chosen values of one configuration
+     */
+    public Map<String, String> getConfiguration(final int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("No configuration " + index + " in batch of size " + size);
+        }
+        Map<String, String> result = new TreeMap<>();
+        values.forEach((family, v) -> {
+            if (null != v[index]) {
+                result.put(family, v[index]);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * @return a mask of all configurations of this batch that satisfy the given expression
+     */
+    public long evaluate(final Expression expression) {
+        if (null == expression) {
+            throw new IllegalArgumentException("Expression must not be NULL!");
+        }
+        if (expression instanceof BlankExpression) {
+            return getAll();
+        } else if (expression instanceof Assignment) {
+            Assignment a = (Assignment) expression;
+            Map<String, Long> familyMasks = masks.get(a.getFamily());
+            if (null == familyMasks) {
+                return 0L;
+            }
+            return familyMasks.getOrDefault(a.getValue(), 0L);
+        } else if (expression instanceof Operation) {
+            Operation op = (Operation) expression;
+            if (op.getType() == Operation.Type.AND) {
+                long result = getAll();
+                for (Expression child : op.getElements()) {
+                    result &= evaluate(child);
+                    if (result == 0L) {
+                        break;
+                    }
+                }
+                return result;
+            } else {
+                long result = 0L;
+                for (Expression child : op.getElements()) {
+                    result |= evaluate(child);
+                    if (result == getAll()) {
+                        break;
+                    }
+                }
+                return result;
+            }
+        } else {
+            throw new UnsupportedOperationException("Unknown expression type: " + expression.getClass().getName());
+        }
+    }
+}
@@ -0,0 +1,470 @@
+package de.ruderphilipp.variance;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.MathContext;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * Counts how many complete configurations satisfy a variance expression.
+ * <p>
+ * A <em>complete configuration</em> picks exactly one value for every option family of the given domains. Counting is
+ * done without enumerating configurations: children of an operation that do not share any family are independent and
+ * their counts get combined arithmetically, children that do share families get conditioned on the most used family
+ * first (all values that are not mentioned in the expression behave the same and are counted as one class).
+ * <p>
+ * All intermediate results are memoized per (interned) sub-expression, thus sub-clauses shared between multiple lines of
+ * a BoM are only counted once per counter instance. Instances are thread-safe.
+ */
+class ConfigurationCounter {
+    static final String CACHE_NAME = "ConfigurationCounter";
+
+    private final Map<String, Set<String>> domains;
+    private final BigInteger total;
+
+    private final ConcurrentMap<String, Node> nodes = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Node, BigInteger> counts = new ConcurrentHashMap<>();
+    private final AtomicInteger nextId = new AtomicInteger();
+
+    private final Node alwaysTrue = intern(new Constant(true));
+    private final Node alwaysFalse = intern(new Constant(false));
+
+    /**
+     * @param domains all possible values per option family
+     */
+    ConfigurationCounter(final Map<String, ? extends Collection<String>> domains) {
+        if (null == domains) {
+            throw new IllegalArgumentException("Domains must not be NULL!");
+        }
+        Map<String, Set<String>> tmp = new HashMap<>();
+        for (Map.Entry<String, ? extends Collection<String>> entry : domains.entrySet()) {
+            if (null == entry.getKey() || entry.getKey().trim().isEmpty()) {
+                throw new IllegalArgumentException("Option family must not be empty!");
+            }
+            if (null == entry.getValue() || entry.getValue().isEmpty()) {
+                throw new IllegalArgumentException("Option family " + entry.getKey() + " needs at least one value!");
+            }
+            Set<String> values = entry.getValue().stream().map(String::trim).collect(Collectors.toSet());
+            tmp.put(entry.getKey().trim(), Collections.unmodifiableSet(values));
+        }
+        this.domains = Collections.unmodifiableMap(tmp);
+        this.total = size(this.domains.keySet());
+    }
+
+    private ConfigurationCounter(final ConfigurationCounter other) {
+        this.domains = other.domains;
+        this.total = other.total;
+    }
+
+    /**
+     * @return a counter for the same domains, but with empty caches
+     */
+    ConfigurationCounter withEmptyCache() {
+        return new ConfigurationCounter(this);
+    }
+
+    public Map<String, Set<String>> getDomains() {
+        return domains;
+    }
+
+    /**
+     * @return the number of all complete configurations
+     */
+    public BigInteger getTotal() {
+        return total;
+    }
+
+    /**
+     * @return the number of complete configurations that satisfy the given expression
+     */
+    public BigInteger count(final Expression expression) {
+        Node node = toNode(expression);
+        return count(node).multiply(sizeWithout(node.support));
+    }
+
+    /**
+     * @return the fraction of all complete configurations that satisfy the given expression (between 0 and 1)
+     */
+    public double selectivity(final Expression expression) {
+        Node node = toNode(expression);
+        // only the families of the expression are relevant, everything else cancels out
+        return ratio(count(node), size(node.support));
+    }
+
+    /**
+     * Calculates the selectivity of every line of a BoM.
+     * <p>
+     * The result has the same order as the input, so it can be used directly to order the evaluation of the lines.
+     */
+    public List<Double> selectivities(final Collection<Expression> lines) {
+        if (null == lines) {
+            throw new IllegalArgumentException("Lines must not be NULL!");
+        }
+        return lines.stream().map(this::selectivity).collect(Collectors.toList());
+    }
+
+    /**
+     * Calculates the coverage of a BoM.
+     * <p>
+     * The lines of a BoM are alternatives, so a complete configuration is covered as soon as at least one line selects
+     * a part for it. Configurations that are not covered do not get any of these parts.
+     *
+     * @return the number of complete configurations that satisfy at least one of the given expressions
+     */
+    public BigInteger coverage(final Collection<Expression> lines) {
+        return count(Operation.Type.OR, lines, Collections.emptyMap());
+    }
+
+    /**
+     * @param fixed option families whose value is already chosen
+     * @return the number of complete configurations with the fixed values that satisfy every given expression
+     */
+    BigInteger countAll(final Collection<Expression> lines, final Map<String, String> fixed) {
+        return count(Operation.Type.AND, lines, fixed);
+    }
+
+    private BigInteger count(final Operation.Type type, final Collection<Expression> lines,
+                             final Map<String, String> fixed) {
+        if (null == lines) {
+            throw new IllegalArgumentException("Lines must not be NULL!");
+        }
+        if (null == fixed) {
+            throw new IllegalArgumentException("Fixed values must not be NULL!");
+        }
+        List<Node> children = lines.stream().map(this::toNode).collect(Collectors.toList());
+        Node node = junction(type, children);
+
+        Set<String> free = new HashSet<>(domains.keySet());
+        for (Map.Entry<String, String> entry : fixed.entrySet()) {
+            Set<String> domain = domains.get(entry.getKey());
+            if (null == domain) {
+                throw new IllegalArgumentException("Unknown option family: " + entry.getKey());
+            }
+            if (!domain.contains(entry.getValue())) {
+                // no complete configuration has this value
+                return BigInteger.ZERO;
+            }
+            node = restrict(node, entry.getKey(), entry.getValue());
+            free.remove(entry.getKey());
+        }
+        free.removeAll(node.support);
+        return count(node).multiply(size(free));
+    }
+
+    private static double ratio(final BigInteger part, final BigInteger whole) {
+        return new BigDecimal(part).divide(new BigDecimal(whole), MathContext.DECIMAL64).doubleValue();
+    }
+
+    // ------------------------------------------------------------------------------------------------------------
+    // conversion into the internal representation
+    // ------------------------------------------------------------------------------------------------------------
+
+    private Node toNode(final Expression expression) {
+        if (null == expression) {
+            throw new IllegalArgumentException("Expression must not be NULL!");
+        }
+        if (expression instanceof BlankExpression) {
+            // no restriction at all
+            return alwaysTrue;
+        } else if (expression instanceof Assignment) {
+            Assignment a = (Assignment) expression;
+            if (!domains.containsKey(a.getFamily())) {
+                throw new IllegalArgumentException("Unknown option family: " + a.getFamily());
+            }
+            return intern(new Literal(a.getFamily(), a.getValue()));
+        } else if (expression instanceof Operation) {
+            Operation op = (Operation) expression;
+            List<Node> children = op.getElements().stream().map(this::toNode).collect(Collectors.toList());
+            return junction(op.getType(), children);
+        } else {
+            throw new UnsupportedOperationException("Unknown expression type: " + expression.getClass().getName());
+        }
+    }
+
+    private Node intern(final Node node) {
+        node.id = nextId.getAndIncrement();
+        Node existing = nodes.putIfAbsent(node.key, node);
+        return (null == existing) ? node : existing;
+    }
+
+    /**
+     * Creates a simplified junction: same types get merged, constants get removed and duplicates are dropped.
+     */
+    private Node junction(final Operation.Type type, final Collection<Node> children) {
+        final Node neutral = (type == Operation.Type.AND) ? alwaysTrue : alwaysFalse;
+        final Node dominant = (type == Operation.Type.AND) ? alwaysFalse : alwaysTrue;
+
+        // sorted by the id of the interned nodes, so that equal junctions get the same key
+        SortedMap<Integer, Node> unique = new TreeMap<>();
+        Deque<Node> todo = new ArrayDeque<>(children);
+        while (!todo.isEmpty()) {
+            Node n = todo.pop();
+            if (n == dominant) {
+                return dominant;
+            } else if (n == neutral) {
+                continue;
+            } else if (n instanceof Junction && ((Junction) n).type == type) {
+                todo.addAll(Arrays.asList(((Junction) n).children));
+            } else {
+                unique.put(n.id, n);
+            }
+        }
+
+        if (unique.isEmpty()) {
+            return neutral;
+        } else if (unique.size() == 1) {
+            return unique.values().iterator().next();
+        } else {
+            return intern(new Junction(type, unique.values().toArray(new Node[0])));
+        }
+    }
+
+    /**
+     * Replaces the given option family with a fixed value.
+     *
+     * @param value the chosen value or NULL for "a value that is not mentioned anywhere"
+     */
+    private Node restrict(final Node node, final String family, final String value) {
+        if (!node.support.contains(family)) {
+            return node;
+        }
+        if (node instanceof Literal) {
+            return ((Literal) node).value.equals(value) ? alwaysTrue : alwaysFalse;
+        }
+        Junction j = (Junction) node;
+        List<Node> children = new ArrayList<>(j.children.length);
+        for (Node child : j.children) {
+            children.add(restrict(child, family, value));
+        }
+        return junction(j.type, children);
+    }
+
+    // ------------------------------------------------------------------------------------------------------------
+    // counting
+    // ------------------------------------------------------------------------------------------------------------
+
+    /**
+     * @return the number of assignments of the families in the support of the node that satisfy the node
+     */
+    private BigInteger count(final Node node) {
+        BigInteger result = counts.get(node);
+        if (Instrumentation.isEnabled()) {
+            Instrumentation.cacheAccessed(CACHE_NAME, null != result);
+        }
+        if (null == result) {
+            result = doCount(node);
+            counts.putIfAbsent(node, result);
+        }
+        return result;
+    }
+
+    private BigInteger doCount(final Node node) {
+        if (node instanceof Constant) {
+            return ((Constant) node).value ? BigInteger.ONE : BigInteger.ZERO;
+        }
+        if (node instanceof Literal) {
+            Literal l = (Literal) node;
+            return domains.get(l.family).contains(l.value) ? BigInteger.ONE : BigInteger.ZERO;
+        }
+
+        Junction j = (Junction) node;
+        BigInteger combined = BigInteger.ONE;
+        for (List<Node> component : independentComponents(j.children)) {
+            Set<String> support = supportOf(component);
+            BigInteger c = (component.size() == 1) ? count(component.get(0)) : conditionedCount(j.type, component, support);
+            if (j.type == Operation.Type.AND) {
+                combined = combined.multiply(c);
+            } else {
+                // count the assignments that do NOT satisfy the component
+                combined = combined.multiply(size(support).subtract(c));
+            }
+        }
+
+        if (j.type == Operation.Type.AND) {
+            return combined;
+        } else {
+            return size(j.support).subtract(combined);
+        }
+    }
+
+    /**
+     * Counts a group of children that share option families by fixing the family used most often.
+     */
+    private BigInteger conditionedCount(final Operation.Type type, final List<Node> component, final Set<String> support) {
+        String family = mostUsedFamily(component);
+        Set<String> domain = domains.get(family);
+
+        Set<String> mentioned = new TreeSet<>();
+        for (Node n : component) {
+            collectValues(n, family, mentioned);
+        }
+        mentioned.retainAll(domain);
+
+        Set<String> remainingSupport = new HashSet<>(support);
+        remainingSupport.remove(family);
+
+        BigInteger result = BigInteger.ZERO;
+        List<String> classes = new ArrayList<>(mentioned);
+        if (domain.size() > mentioned.size()) {
+            classes.add(null);
+        }
+        for (String value : classes) {
+            List<Node> restricted = new ArrayList<>(component.size());
+            for (Node n : component) {
+                restricted.add(restrict(n, family, value));
+            }
+            Node r = junction(type, restricted);
+            Set<String> missing = new HashSet<>(remainingSupport);
+            missing.removeAll(r.support);
+            BigInteger c = count(r).multiply(size(missing));
+            if (null == value) {
+                c = c.multiply(BigInteger.valueOf(domain.size() - mentioned.size()));
+            }
+            result = result.add(c);
+        }
+        return result;
+    }
+
+    private static List<List<Node>> independentComponents(final Node[] children) {
+        // union-find over the children, connected by shared families
+        int[] parent = new int[children.length];
+        for (int i = 0; i < parent.length; i++) {
+            parent[i] = i;
+        }
+        Map<String, Integer> firstUser = new HashMap<>();
+        for (int i = 0; i < children.length; i++) {
+            for (String family : children[i].support) {
+                Integer other = firstUser.putIfAbsent(family, i);
+                if (null != other) {
+                    parent[find(parent, i)] = find(parent, other);
+                }
+            }
+        }
+        Map<Integer, List<Node>> groups = new LinkedHashMap<>();
+        for (int i = 0; i < children.length; i++) {
+            groups.computeIfAbsent(find(parent, i), k -> new ArrayList<>()).add(children[i]);
+        }
+        return new ArrayList<>(groups.values());
+    }
+
+    private static int find(final int[] parent, final int i) {
+        int root = i;
+        while (parent[root] != root) {
+            root = parent[root];
+        }
+        parent[i] = root;
+        return root;
+    }
+
+    private static String mostUsedFamily(final List<Node> component) {
+        Map<String, Integer> usage = new TreeMap<>();
+        for (Node n : component) {
+            for (String family : n.support) {
+                usage.merge(family, 1, Integer::sum);
+            }
+        }
+        return Collections.max(usage.entrySet(), Map.Entry.comparingByValue()).getKey();
+    }
+
+    private static void collectValues(final Node node, final String family, final Set<String> result) {
+        if (!node.support.contains(family)) {
+            return;
+        }
+        if (node instanceof Literal) {
+            result.add(((Literal) node).value);
+        } else if (node instanceof Junction) {
+            for (Node child : ((Junction) node).children) {
+                collectValues(child, family, result);
+            }
+        }
+    }
+
+    private static Set<String> supportOf(final List<Node> component) {
+        Set<String> result = new HashSet<>();
+        for (Node n : component) {
+            result.addAll(n.support);
+        }
+        return result;
+    }
+
+    /**
+     * @return the number of assignments of the given families
+     */
+    private BigInteger size(final Set<String> families) {
+        BigInteger result = BigInteger.ONE;
+        for (String family : families) {
+            result = result.multiply(BigInteger.valueOf(domains.get(family).size()));
+        }
+        return result;
+    }
+
+    /**
+     * @return the number of assignments of all families except the given ones
+     */
+    private BigInteger sizeWithout(final Set<String> families) {
+        Set<String> others = new HashSet<>(domains.keySet());
+        others.removeAll(families);
+        return size(others);
+    }
+
+    // ------------------------------------------------------------------------------------------------------------
+    // internal representation
+    // ------------------------------------------------------------------------------------------------------------
+
+    private abstract static class Node {
+        final String key;
+        final Set<String> support;
+        // assigned when interned
+        int id;
+
+        Node(final String key, final Set<String> support) {
+            this.key = key;
+            this.support = support;
+        }
+    }
+
+    private static final class Constant extends Node {
+        final boolean value;
+
+        Constant(final boolean value) {
+            super(Boolean.toString(value), Collections.emptySet());
+            this.value = value;
+        }
+    }
+
+    private static final class Literal extends Node {
+        final String family;
+        final String value;
+
+        Literal(final String family, final String value) {
+            super(family + " = " + value, Collections.singleton(family));
+            this.family = family;
+            this.value = value;
+        }
+    }
+
+    private static final class Junction extends Node {
+        final Operation.Type type;
+        final Node[] children;
+
+        Junction(final Operation.Type type, final Node[] children) {
+            // the children are interned, thus their ids identify them
+            super(type + Arrays.stream(children).map(c -> Integer.toString(c.id)).collect(Collectors.joining(",", "(", ")")),
+                    supportOf(children));
+            this.type = type;
+            this.children = children;
+        }
+
+        private static Set<String> supportOf(final Node[] children) {
+            Set<String> result = new HashSet<>();
+            for (Node child : children) {
+                result.addAll(child.support);
+            }
+            return Collections.unmodifiableSet(result);
+        }
+    }
+}
@@ -0,0 +1,243 @@
+package de.ruderphilipp.variance;
+
+import java.math.BigInteger;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Verifies that an optimized expression still selects exactly the same configurations as the original one.
+ * <p>
+ * The check has two stages: first both expressions are evaluated bit-parallel on batches of boundary and random
+ * configurations, which finds most differences very cheap. Only pairs that survive this simulation get proven exactly
+ * with the help of a {@link ConfigurationCounter}: two expressions <tt>A</tt> and <tt>B</tt> are equivalent if
+ * <tt>|A| = |B| = |A AND B|</tt>. Every pair gets its own counter, so the memory needed does not grow with the number
+ * of checked lines.
+ * <p>
+ * Instances are thread-safe; {@link #verify(List, List)} checks all pairs in parallel.
+ */
+class EquivalenceChecker {
+    static final int DEFAULT_RANDOM_BATCHES = 16;
+
+    /**
+     * How an equivalence check was decided.
+     */
+    enum Stage {
+        SIMULATION, EXACT
+    }
+
+    /**
+     * The result of comparing two expressions.
+     */
+    static final class Result {
+        private final Stage stage;
+        private final Map<String, String> counterexample;
+
+        private Result(final Stage stage, final Map<String, String> counterexample) {
+            this.stage = stage;
+            this.counterexample = (null == counterexample) ? null : Collections.unmodifiableMap(counterexample);
+        }
+
+        public boolean isEquivalent() {
+            return null == counterexample;
+        }
+
+        public Stage getStage() {
+            return stage;
+        }
+
+        /**
+         * @return values for all option families used in one of the expressions for which the expressions differ or
+         * NULL if they are equivalent
+         */
+        public Map<String, String> getCounterexample() {
+            return counterexample;
+        }
+    }
+
+    // only used for the domains, checks work on a copy with empty caches
+    private final ConfigurationCounter counter;
+    private final int randomBatches;
+    private final long seed;
+
+    EquivalenceChecker(final Map<String, ? extends Collection<String>> domains) {
+        this(domains, DEFAULT_RANDOM_BATCHES, 0L);
+    }
+
+    /**
+     * @param randomBatches number of batches with 64 random configurations each
+     * @param seed          seed for the random configurations, so that runs are reproducible
+     */
+    EquivalenceChecker(final Map<String, ? extends Collection<String>> domains, final int randomBatches, final long seed) {
+        if (randomBatches < 0) {
+            throw new IllegalArgumentException("Number of random batches must not be negative!");
+        }
+        this.counter = new ConfigurationCounter(domains);
+        this.randomBatches = randomBatches;
+        this.seed = seed;
+    }
+
+    /**
+     * Checks every original line against its optimized counterpart (in parallel).
+     *
+     * @return the results in the order of the input
+     */
+    public List<Result> verify(final List<Expression> originals, final List<Expression> optimized) {
+        if (null == originals || null == optimized) {
+            throw new IllegalArgumentException("Lines must not be NULL!");
+        }
+        if (originals.size() != optimized.size()) {
+            throw new IllegalArgumentException("Got " + originals.size() + " original but " + optimized.size() + " optimized lines!");
+        }
+        return IntStream.range(0, originals.size())
+                .parallel()
+                .mapToObj(i -> check(originals.get(i), optimized.get(i), seed + i))
+                .collect(Collectors.toList());
+    }
+
+    public Result check(final Expression original, final Expression optimized) {
+        return check(original, optimized, seed);
+    }
+
+    private Result check(final Expression original, final Expression optimized, final long mySeed) {
+        if (null == original || null == optimized) {
+            throw new IllegalArgumentException("Expression must not be NULL!");
+        }
+
+        // only the values that are used somewhere make a difference, all others behave the same
+        SortedMap<String, List<String>> candidates = candidateValues(original, optimized);
+
+        Map<String, String> counterexample = simulate(original, optimized, candidates, mySeed);
+        if (null != counterexample) {
+            return new Result(Stage.SIMULATION, counterexample);
+        }
+
+        ConfigurationCounter pairCounter = counter.withEmptyCache();
+        if (isEquivalent(pairCounter, original, optimized, Collections.emptyMap())) {
+            return new Result(Stage.EXACT, null);
+        }
+        return new Result(Stage.EXACT, findCounterexample(pairCounter, original, optimized, candidates));
+    }
+
+    // ------------------------------------------------------------------------------------------------------------
+    // simulation
+    // ------------------------------------------------------------------------------------------------------------
+
+    private Map<String, String> simulate(final Expression a, final Expression b,
+                                         final SortedMap<String, List<String>> candidates, final long mySeed) {
+        // boundary cases: every candidate value of every family at least once
+        int boundaryConfigurations = candidates.values().stream().mapToInt(List::size).max().orElse(1);
+        for (int start = 0; start < boundaryConfigurations; start += ConfigurationBatch.MAX_SIZE) {
+            ConfigurationBatch batch = new ConfigurationBatch(Math.min(ConfigurationBatch.MAX_SIZE, boundaryConfigurations - start));
+            int shift = 0;
+            int[] chosen = new int[batch.getSize()];
+            for (Map.Entry<String, List<String>> entry : candidates.entrySet()) {
+                List<String> values = entry.getValue();
+                for (int i = 0; i < chosen.length; i++) {
+                    // shift per family, so that the families do not always change together
+                    chosen[i] = (start + i + shift) % values.size();
+                }
+                batch.set(entry.getKey(), values, chosen);
+                shift++;
+            }
+            Map<String, String> counterexample = compare(a, b, batch);
+            if (null != counterexample) {
+                return counterexample;
+            }
+        }
+
+        SplittableRandom random = new SplittableRandom(mySeed);
+        int[] chosen = new int[ConfigurationBatch.MAX_SIZE];
+        for (int round = 0; round < randomBatches; round++) {
+            ConfigurationBatch batch = new ConfigurationBatch(ConfigurationBatch.MAX_SIZE);
+            for (Map.Entry<String, List<String>> entry : candidates.entrySet()) {
+                List<String> values = entry.getValue();
+                for (int i = 0; i < chosen.length; i++) {
+                    chosen[i] = random.nextInt(values.size());
+                }
+                batch.set(entry.getKey(), values, chosen);
+            }
+            Map<String, String> counterexample = compare(a, b, batch);
+            if (null != counterexample) {
+                return counterexample;
+            }
+        }
+        return null;
+    }
+
+    private static Map<String, String> compare(final Expression a, final Expression b, final ConfigurationBatch batch) {
+        long difference = batch.evaluate(a) ^ batch.evaluate(b);
+        if (difference == 0L) {
+            return null;
+        }
+        return batch.getConfiguration(Long.numberOfTrailingZeros(difference));
+    }
+
+    /**
+     * @return for every used family the used values plus one unused value (if the domain has one)
+     */
+    private SortedMap<String, List<String>> candidateValues(final Expression a, final Expression b) {
+        SortedMap<String, Set<String>> used = new TreeMap<>();
+        collectValues(a, used);
+        collectValues(b, used);
+
+        SortedMap<String, List<String>> result = new TreeMap<>();
+        for (Map.Entry<String, Set<String>> entry : used.entrySet()) {
+            Set<String> domain = counter.getDomains().get(entry.getKey());
+            if (null == domain) {
+                throw new IllegalArgumentException("Unknown option family: " + entry.getKey());
+            }
+            List<String> values = entry.getValue().stream().filter(domain::contains).collect(Collectors.toList());
+            domain.stream()
+                    .filter(v -> !entry.getValue().contains(v))
+                    .sorted()
+                    .findFirst()
+                    .ifPresent(values::add);
+            result.put(entry.getKey(), values);
+        }
+        return result;
+    }
+
+    private static void collectValues(final Expression e, final Map<String, Set<String>> result) {
+        if (e instanceof Assignment) {
+            Assignment a = (Assignment) e;
+            result.computeIfAbsent(a.getFamily(), k -> new TreeSet<>()).add(a.getValue());
+        } else if (e instanceof Operation) {
+            for (Expression child : ((Operation) e).getElements()) {
+                collectValues(child, result);
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------------------------------------------
+    // exact check
+    // ------------------------------------------------------------------------------------------------------------
+
+    private static boolean isEquivalent(final ConfigurationCounter counter, final Expression a, final Expression b,
+                                        final Map<String, String> fixed) {
+        BigInteger countA = counter.countAll(Collections.singletonList(a), fixed);
+        BigInteger countB = counter.countAll(Collections.singletonList(b), fixed);
+        if (!countA.equals(countB)) {
+            return false;
+        }
+        return countA.equals(counter.countAll(Arrays.asList(a, b), fixed));
+    }
+
+    /**
+     * Fixes one family after the other, always keeping a value for which the expressions still differ.
+     */
+    private static Map<String, String> findCounterexample(final ConfigurationCounter counter, final Expression a,
+                                                          final Expression b,
+                                                          final SortedMap<String, List<String>> candidates) {
+        Map<String, String> fixed = new TreeMap<>();
+        for (Map.Entry<String, List<String>> entry : candidates.entrySet()) {
+            for (String value : entry.getValue()) {
+                fixed.put(entry.getKey(), value);
+                if (!isEquivalent(counter, a, b, fixed)) {
+                    break;
+                }
+            }
+        }
+        return fixed;
+    }
+}
@@ -0,0 +1,240 @@
+package de.ruderphilipp.variance;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+/**
+ * Evaluates an expression against single configurations with short-circuiting.
+ * <p>
+ * The canonical (alphabetical) order of the children of an {@link Operation} does not say anything about how expensive
+ * they are or how likely they are satisfied. A plan keeps its own order per operation: children that most likely fail
+ * come first under AND and children that most likely succeed come first under OR, each weighted with the expected
+ * number of assignments that need to be looked at. The expression itself is not changed.
+ * <p>
+ * The probabilities are either computed with a {@link ConfigurationCounter} or assumed to be 50%. An adaptive plan
+ * additionally counts how often each node is satisfied and uses these statistics for reordering, either on
+ * {@link #reorder()} or automatically after a number of evaluations. Plans are thread-safe.
+ */
+class ExecutionPlan {
+    // weight of the prior probability compared to one observation
+    private static final double PRIOR_WEIGHT = 2.0;
+
+    private final Expression expression;
+    private final Node root;
+    private final boolean adaptive;
+    private final long reorderEvery;
+    private final AtomicLong evaluations = new AtomicLong();
+
+    private ExecutionPlan(final Expression expression, final ConfigurationCounter counter, final boolean adaptive,
+                          final long reorderEvery) {
+        if (null == expression) {
+            throw new IllegalArgumentException("Expression must not be NULL!");
+        }
+        this.expression = expression;
+        this.root = toNode(expression, counter);
+        this.adaptive = adaptive;
+        this.reorderEvery = reorderEvery;
+        reorder();
+    }
+
+    /**
+     * Creates a fixed plan, ordered by size of the children only.
+     */
+    public static ExecutionPlan of(final Expression expression) {
+        return new ExecutionPlan(expression, null, false, 0);
+    }
+
+    /**
+     * Creates a fixed plan, ordered by the selectivity computed by the counter.
+     */
+    public static ExecutionPlan of(final Expression expression, final ConfigurationCounter counter) {
+        if (null == counter) {
+            throw new IllegalArgumentException("Counter must not be NULL!");
+        }
+        return new ExecutionPlan(expression, counter, false, 0);
+    }
+
+    /**
+     * Creates a plan that learns from the evaluated configurations.
+     *
+     * @param counter      used for the initial order, might be NULL
+     * @param reorderEvery number of evaluations after which the order gets updated automatically, 0 to only reorder on
+     *                     {@link #reorder()}
+     */
+    public static ExecutionPlan adaptive(final Expression expression, final ConfigurationCounter counter,
+                                         final long reorderEvery) {
+        if (reorderEvery < 0) {
+            throw new IllegalArgumentException("Number of evaluations must not be negative!");
+        }
+        return new ExecutionPlan(expression, counter, true, reorderEvery);
+    }
+
+    public Expression getExpression() {
+        return expression;
+    }
+
+    /**
+     * @param configuration the chosen value per option family
+     * @return whether the configuration satisfies the expression
+     */
+    public boolean evaluate(final Map<String, String> configuration) {
+        if (null == configuration) {
+            throw new IllegalArgumentException("Configuration must not be NULL!");
+        }
+        boolean result = evaluate(root, configuration);
+        if (adaptive && reorderEvery > 0 && evaluations.incrementAndGet() % reorderEvery == 0) {
+            reorder();
+        }
+        return result;
+    }
+
+    private boolean evaluate(final Node node, final Map<String, String> configuration) {
+        boolean result;
+        if (null != node.family) {
+            result = node.value.equals(configuration.get(node.family));
+        } else if (null == node.type) {
+            result = true;
+        } else if (node.type == Operation.Type.AND) {
+            result = true;
+            for (Node child : node.order) {
+                if (!evaluate(child, configuration)) {
+                    result = false;
+                    break;
+                }
+            }
+        } else {
+            result = false;
+            for (Node child : node.order) {
+                if (evaluate(child, configuration)) {
+                    result = true;
+                    break;
+                }
+            }
+        }
+        if (adaptive) {
+            node.evaluations.increment();
+            if (result) {
+                node.satisfied.increment();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Updates the order of all operations with the current statistics.
+     */
+    public synchronized void reorder() {
+        reorder(root);
+    }
+
+    /**
+     * @return the expected number of looked at assignments of the node with the new order
+     */
+    private double reorder(final Node node) {
+        if (null == node.type) {
+            return (null == node.family) ? 0 : 1;
+        }
+
+        // statistics keep changing while evaluations run, so sort on a snapshot to get a consistent order
+        final int n = node.children.length;
+        final double[] costs = new double[n];
+        final double[] probabilities = new double[n];
+        final double[] keys = new double[n];
+        final boolean and = node.type == Operation.Type.AND;
+        Integer[] indexes = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            Node child = node.children[i];
+            costs[i] = reorder(child);
+            probabilities[i] = child.probability();
+            // AND: cheap children that most likely fail first, OR: cheap children that most likely succeed first
+            double decisive = and ? 1 - probabilities[i] : probabilities[i];
+            keys[i] = (decisive <= 0) ? Double.POSITIVE_INFINITY : costs[i] / decisive;
+            indexes[i] = i;
+        }
+        Arrays.sort(indexes, Comparator.comparingDouble(i -> keys[i]));
+
+        Node[] order = new Node[n];
+        // expected cost: a child is only evaluated if none of the previous ones decided the result
+        double cost = 0;
+        double reached = 1;
+        for (int i = 0; i < n; i++) {
+            int c = indexes[i];
+            order[i] = node.children[c];
+            cost += reached * costs[c];
+            reached *= and ? probabilities[c] : 1 - probabilities[c];
+        }
+        node.order = order;
+        return cost;
+    }
+
+    /**
+     * @return the expression with the children in execution order (instead of the canonical order)
+     */
+    public String getExecutionOrderAsString() {
+        return asString(root);
+    }
+
+    private static String asString(final Node node) {
+        if (null == node.type) {
+            return node.expression.getExpressionAsString();
+        }
+        return Arrays.stream(node.order)
+                .map(c -> (null == c.type) ? asString(c) : "(" + asString(c) + ")")
+                .collect(Collectors.joining(" " + node.type + " "));
+    }
+
+    private static Node toNode(final Expression e, final ConfigurationCounter counter) {
+        double prior = (null == counter) ? 0.5 : counter.selectivity(e);
+        if (e instanceof BlankExpression) {
+            return new Node(e, null, null, null, new Node[0], 1.0);
+        } else if (e instanceof Assignment) {
+            Assignment a = (Assignment) e;
+            return new Node(e, null, a.getFamily(), a.getValue(), new Node[0], prior);
+        } else if (e instanceof Operation) {
+            Operation op = (Operation) e;
+            Node[] children = op.getElements().stream().map(c -> toNode(c, counter)).toArray(Node[]::new);
+            return new Node(e, op.getType(), null, null, children, prior);
+        } else {
+            throw new UnsupportedOperationException("Unknown expression type: " + e.getClass().getName());
+        }
+    }
+
+    private static final class Node {
+        final Expression expression;
+        final Operation.Type type;
+        final String family;
+        final String value;
+        final Node[] children;
+        final double prior;
+
+        // replaced as a whole, so that evaluations never see a half sorted array
+        volatile Node[] order;
+
+        final LongAdder evaluations = new LongAdder();
+        final LongAdder satisfied = new LongAdder();
+
+        Node(final Expression expression, final Operation.Type type, final String family, final String value,
+             final Node[] children, final double prior) {
+            this.expression = expression;
+            this.type = type;
+            this.family = family;
+            this.value = value;
+            this.children = children;
+            this.prior = prior;
+            this.order = children;
+        }
+
+        /**
+         * @return the probability that this node is satisfied, observed values blended with the prior
+         */
+        double probability() {
+            double n = evaluations.sum();
+            if (n == 0) {
+                return prior;
+            }
+            return (satisfied.sum() + prior * PRIOR_WEIGHT) / (n + PRIOR_WEIGHT);
+        }
+    }
+}
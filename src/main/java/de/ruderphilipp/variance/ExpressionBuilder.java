@@ -1,6 +1,7 @@
 package de.ruderphilipp.variance;
 
 import java.util.*;
+import java.util.function.UnaryOperator;
 import java.util.stream.Collectors;
 
 class ExpressionBuilder {
@@ -13,6 +14,32 @@ class ExpressionBuilder {
     private static final int STEP_SIZE = 4; // either " OR " or " AND" (space gets trimmed away)
 
     public static Expression build(final String varianceExpression) {
+        return build(varianceExpression, UnaryOperator.identity());
+    }
+
+    /**
+     * @param interner returns the shared instance of an equal assignment or operation, so that sub-clauses of
+     *                 different expressions can be shared
+     */
+    static Expression build(final String varianceExpression, final UnaryOperator<Expression> interner) {
+        if (!Instrumentation.isEnabled()) {
+            return parse(varianceExpression, interner);
+        }
+
+        long start = System.nanoTime();
+        Expression result;
+        try {
+            result = parse(varianceExpression, interner);
+        } catch (RuntimeException e) {
+            Instrumentation.parseFailed(varianceExpression, System.nanoTime() - start, e);
+            throw e;
+        }
+        // outside of the try block, so that only errors of the parser are counted as failures
+        Instrumentation.parsed(varianceExpression, System.nanoTime() - start, result);
+        return result;
+    }
+
+    private static Expression parse(final String varianceExpression, final UnaryOperator<Expression> interner) {
         // error checking
         if (null == varianceExpression) {
             throw new IllegalArgumentException("Input value of NULL not valid!");
@@ -34,11 +61,11 @@ class ExpressionBuilder {
             int countAnd = countMatches(AND, varExp);
             int countOr = countMatches(OR, varExp);
             if (countAnd > 0 && countOr > 0) {
-                result = splitWithMultipleTypes(varExp);
+                result = splitWithMultipleTypes(varExp, interner);
             } else {
                 // only one type
                 String type = (countAnd > 0) ? AND : OR;
-                result = splitWithOneType(type, varExp);
+                result = splitWithOneType(type, varExp, interner);
             }
         } else {
             // single assignment
@@ -49,7 +76,7 @@ class ExpressionBuilder {
             if (parts.length != 2) {
                 throw new IncompleteExpressionException("Incomplete assignment!");
             }
-            result = new Assignment(parts[0], parts[1]);
+            result = interner.apply(new Assignment(parts[0], parts[1]));
         }
 
         return result;
@@ -101,25 +128,27 @@ class ExpressionBuilder {
         return tmp.split(needle).length - 1;
     }
 
-    private static Expression splitWithOneType(final String t, final String varianceExpression) {
+    private static Expression splitWithOneType(final String t, final String varianceExpression,
+                                                final UnaryOperator<Expression> interner) {
         String varExp = varianceExpression.replace("(", "").replace(")", "");
         String[] parts = varExp.split(t);
         Set<String> uniqueParts = new HashSet<>(Arrays.asList(parts));
         List<Expression> children = new ArrayList<>();
         for (String p : uniqueParts) {
-            children.add(build(p));
+            children.add(parse(p, interner));
         }
-        return Operation.create(getType(t), children);
+        return Operation.create(getType(t), children, interner);
     }
 
-    private static Expression splitWithMultipleTypes(final String varianceExpression) {
+    private static Expression splitWithMultipleTypes(final String varianceExpression,
+                                                     final UnaryOperator<Expression> interner) {
         List<Integer> openingParentheses = findAllPositionsOf("(", varianceExpression);
         List<Integer> closingParentheses = findAllPositionsOf(")", varianceExpression);
         List<Integer> level0Positions = findLevelZeroPositions(openingParentheses, closingParentheses, varianceExpression.length());
         if (level0Positions.isEmpty()) {
             if (!openingParentheses.isEmpty()) {
                 // "(...)" around complete statement
-                return build(varianceExpression.substring(1, varianceExpression.length() - 1));
+                return parse(varianceExpression.substring(1, varianceExpression.length() - 1), interner);
             } else {
                 // no parenthesis
                 // cannot be "-1" because this method is only entered if both exist
@@ -151,9 +180,9 @@ class ExpressionBuilder {
         textParts.add(varianceExpression.substring(start).trim());
 
         // parse the texts
-        List<Expression> parts = textParts.stream().map(ExpressionBuilder::build).collect(Collectors.toList());
+        List<Expression> parts = textParts.stream().map(t -> parse(t, interner)).collect(Collectors.toList());
 
-        return Operation.create(getType(type), parts);
+        return Operation.create(getType(type), parts, interner);
     }
 
     private static Operation.Type getType(final String type) throws UnsupportedOperationException {
@@ -0,0 +1,258 @@
+package de.ruderphilipp.variance;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A thread-safe engine for parsing, optimizing and evaluating variance expressions, meant to be shared by multiple
+ * applications.
+ * <p>
+ * Parsed trees are cached by their text. Every assignment and operation is interned while parsing, so equal lines and
+ * equal sub-clauses of different lines share one node. Both caches are bounded and evict the entries that were not
+ * used for the longest time (see {@link BoundedCache}). Evaluation requests are collected in striped queues and evaluated in micro-batches of up to 64
+ * configurations with a {@link ConfigurationBatch}, where every distinct expression of a batch is only evaluated once.
+ * Neither parsing nor evaluating takes a global lock.
+ * <p>
+ * By default the batches are processed on virtual threads if the runtime supports them, otherwise on a pool with one
+ * thread per core.
+ */
+class ExpressionService implements AutoCloseable {
+    static final String CACHE_NAME = "ExpressionService";
+    static final int DEFAULT_MAX_CACHED_EXPRESSIONS = 1_000_000;
+
+    private final ExecutorService executor;
+    private final boolean ownExecutor;
+
+    private final BoundedCache<String, Expression> byText;
+    private final BoundedCache<Expression, Expression> nodes;
+
+    private final Stripe[] stripes;
+
+    private final LongAdder evaluations = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+
+    ExpressionService() {
+        this(defaultExecutor(), true, DEFAULT_MAX_CACHED_EXPRESSIONS);
+    }
+
+    /**
+     * @param executor             runs the evaluation batches, is not shut down by {@link #close()}
+     * @param maxCachedExpressions number of texts and of nodes that are kept at most
+     */
+    ExpressionService(final ExecutorService executor, final int maxCachedExpressions) {
+        this(executor, false, maxCachedExpressions);
+    }
+
+    private ExpressionService(final ExecutorService executor, final boolean ownExecutor, final int maxCachedExpressions) {
+        if (null == executor) {
+            throw new IllegalArgumentException("Executor must not be NULL!");
+        }
+        if (maxCachedExpressions < 0) {
+            throw new IllegalArgumentException("Cache size must not be negative!");
+        }
+        this.executor = executor;
+        this.ownExecutor = ownExecutor;
+        this.byText = new BoundedCache<>(maxCachedExpressions);
+        this.nodes = new BoundedCache<>(maxCachedExpressions);
+
+        int count = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors()) * 2 - 1);
+        this.stripes = new Stripe[count];
+        for (int i = 0; i < count; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    private static ExecutorService defaultExecutor() {
+        try {
+            // only available since Java 21
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            AtomicInteger counter = new AtomicInteger();
+            return Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), r -> {
+                Thread t = new Thread(r, "expression-service-" + counter.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+
+    /**
+     * Parses a variance expression or returns the already known tree.
+     *
+     * @throws IllegalArgumentException if the text is not a valid variance expression
+     */
+    public Expression parse(final String varianceExpression) {
+        if (null == varianceExpression) {
+            throw new IllegalArgumentException("Input value of NULL not valid!");
+        }
+        Expression result = byText.get(varianceExpression);
+        if (Instrumentation.isEnabled()) {
+            Instrumentation.cacheAccessed(CACHE_NAME, null != result);
+        }
+        if (null != result) {
+            return result;
+        }
+
+        Expression parsed = ExpressionBuilder.build(varianceExpression, this::intern);
+        return byText.intern(varianceExpression, parsed);
+    }
+
+    private Expression intern(final Expression node) {
+        return nodes.intern(node, node);
+    }
+
+    /**
+     * @return the canonical (optimized) form of the given variance expression
+     */
+    public String optimize(final String varianceExpression) {
+        return parse(varianceExpression).getExpressionAsString();
+    }
+
+    /**
+     * Evaluates a variance expression for one configuration.
+     * <p>
+     * The request gets evaluated together with other pending requests. If the expression is invalid, the result
+     * completes exceptionally with an {@link IllegalArgumentException}.
+     *
+     * @param configuration the chosen value per option family, gets copied so that the caller can reuse it right
+     *                      after the call
+     */
+    public CompletableFuture<Boolean> evaluate(final String varianceExpression, final Map<String, String> configuration) {
+        CompletableFuture<Boolean> result = new CompletableFuture<>();
+        Expression expression;
+        try {
+            if (null == configuration) {
+                throw new IllegalArgumentException("Configuration must not be NULL!");
+            }
+            expression = parse(varianceExpression);
+        } catch (IllegalArgumentException e) {
+            result.completeExceptionally(e);
+            return result;
+        }
+
+        Stripe stripe = stripes[(int) Thread.currentThread().getId() & (stripes.length - 1)];
+        // evaluated later on another thread, so the caller must not be able to change it meanwhile
+        stripe.queue.add(new Request(expression, new HashMap<>(configuration), result));
+        schedule(stripe);
+        return result;
+    }
+
+    private void schedule(final Stripe stripe) {
+        if (stripe.scheduled.compareAndSet(false, true)) {
+            try {
+                executor.execute(() -> drain(stripe));
+            } catch (RejectedExecutionException e) {
+                stripe.scheduled.set(false);
+                failAll(stripe, e);
+            }
+        }
+    }
+
+    private void drain(final Stripe stripe) {
+        do {
+            List<Request> batch = new ArrayList<>(ConfigurationBatch.MAX_SIZE);
+            Request r;
+            while (null != (r = stripe.queue.poll())) {
+                batch.add(r);
+                if (batch.size() == ConfigurationBatch.MAX_SIZE) {
+                    process(batch);
+                    batch.clear();
+                }
+            }
+            if (!batch.isEmpty()) {
+                process(batch);
+            }
+            stripe.scheduled.set(false);
+            // a request might have been added after the last poll but before resetting the flag
+        } while (!stripe.queue.isEmpty() && stripe.scheduled.compareAndSet(false, true));
+    }
+
+    private void process(final List<Request> requests) {
+        try {
+            ConfigurationBatch batch = new ConfigurationBatch(requests.size());
+            for (int i = 0; i < requests.size(); i++) {
+                for (Map.Entry<String, String> entry : requests.get(i).configuration.entrySet()) {
+                    batch.set(i, entry.getKey(), entry.getValue());
+                }
+            }
+            // interned trees, so equal expressions are evaluated only once per batch
+            Map<Expression, Long> results = new IdentityHashMap<>();
+            long[] masks = new long[requests.size()];
+            for (int i = 0; i < requests.size(); i++) {
+                masks[i] = results.computeIfAbsent(requests.get(i).expression, batch::evaluate);
+            }
+            // count before completing, so that callers see the statistics of their own requests
+            evaluations.add(requests.size());
+            batches.increment();
+            for (int i = 0; i < requests.size(); i++) {
+                requests.get(i).result.complete((masks[i] >>> i & 1L) == 1L);
+            }
+        } catch (RuntimeException e) {
+            for (Request request : requests) {
+                request.result.completeExceptionally(e);
+            }
+        }
+    }
+
+    private static void failAll(final Stripe stripe, final Throwable error) {
+        Request r;
+        while (null != (r = stripe.queue.poll())) {
+            r.result.completeExceptionally(error);
+        }
+    }
+
+    /**
+     * @return number of evaluated configurations
+     */
+    public long getEvaluationCount() {
+        return evaluations.sum();
+    }
+
+    /**
+     * @return number of batches the evaluated configurations were grouped in
+     */
+    public long getBatchCount() {
+        return batches.sum();
+    }
+
+    /**
+     * @return number of cached texts
+     */
+    public int getCacheSize() {
+        return byText.size();
+    }
+
+    /**
+     * @return number of interned assignments and operations
+     */
+    public int getNodeCount() {
+        return nodes.size();
+    }
+
+    @Override
+    public void close() {
+        if (ownExecutor) {
+            executor.shutdown();
+        }
+    }
+
+    private static final class Stripe {
+        final Queue<Request> queue = new ConcurrentLinkedQueue<>();
+        final AtomicBoolean scheduled = new AtomicBoolean();
+    }
+
+    private static final class Request {
+        final Expression expression;
+        final Map<String, String> configuration;
+        final CompletableFuture<Boolean> result;
+
+        Request(final Expression expression, final Map<String, String> configuration, final CompletableFuture<Boolean> result) {
+            this.expression = expression;
+            this.configuration = configuration;
+            this.result = result;
+        }
+    }
+}
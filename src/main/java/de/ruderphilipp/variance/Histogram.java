@@ -0,0 +1,82 @@
+package de.ruderphilipp.variance;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free histogram with buckets of powers of two.
+ * <p>
+ * Bucket <tt>i</tt> contains all values <tt>v</tt> with <tt>2^(i-1) &lt;= v &lt; 2^i</tt>, bucket <tt>0</tt> contains
+ * everything lower than one.
+ */
+class Histogram {
+    static final int BUCKETS = 64;
+
+    private final LongAdder[] buckets = new LongAdder[BUCKETS];
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    Histogram() {
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    void record(final long value) {
+        long v = Math.max(0, value);
+        buckets[Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(v))].increment();
+        count.increment();
+        sum.add(v);
+        max.accumulate(v);
+    }
+
+    long getCount() {
+        return count.sum();
+    }
+
+    long getMax() {
+        return max.get();
+    }
+
+    double getMean() {
+        long c = count.sum();
+        return (c == 0) ? 0 : (double) sum.sum() / c;
+    }
+
+    /**
+     * @return an upper bound of the given quantile (between 0 and 1), precise up to a factor of two
+     */
+    long getQuantile(final double quantile) {
+        long c = count.sum();
+        if (c == 0) {
+            return 0;
+        }
+        long threshold = (long) Math.ceil(quantile * c);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += buckets[i].sum();
+            if (seen >= threshold) {
+                return (i == 0) ? 0 : Math.min(getMax(), (i >= 63) ? Long.MAX_VALUE : (1L << i) - 1);
+            }
+        }
+        return getMax();
+    }
+
+    long[] getBuckets() {
+        long[] result = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            result[i] = buckets[i].sum();
+        }
+        return result;
+    }
+
+    void reset() {
+        for (LongAdder b : buckets) {
+            b.reset();
+        }
+        count.reset();
+        sum.reset();
+        max.reset();
+    }
+}
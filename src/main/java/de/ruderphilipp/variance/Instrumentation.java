@@ -0,0 +1,90 @@
+package de.ruderphilipp.variance;
+
+import java.util.Arrays;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Central registry for {@link InstrumentationListener}s.
+ * <p>
+ * If no listener is registered, the instrumented code only checks a single volatile field, so there is next to no
+ * overhead if instrumentation is not used. Exceptions thrown by a listener are logged and never reach the instrumented
+ * code, so a faulty listener can neither break parsing nor affect the other listeners.
+ */
+public final class Instrumentation {
+
+    private static final Logger LOGGER = Logger.getLogger(Instrumentation.class.getName());
+
+    private static final InstrumentationListener[] NONE = new InstrumentationListener[0];
+
+    // copy-on-write, so that notifying does not need any locking
+    private static volatile InstrumentationListener[] listeners = NONE;
+
+    private Instrumentation() {
+    }
+
+    public static synchronized void addListener(final InstrumentationListener listener) {
+        if (null == listener) {
+            throw new IllegalArgumentException("Listener must not be NULL!");
+        }
+        InstrumentationListener[] tmp = Arrays.copyOf(listeners, listeners.length + 1);
+        tmp[tmp.length - 1] = listener;
+        listeners = tmp;
+    }
+
+    public static synchronized void removeListener(final InstrumentationListener listener) {
+        InstrumentationListener[] tmp = Arrays.stream(listeners)
+                .filter(l -> l != listener)
+                .toArray(InstrumentationListener[]::new);
+        listeners = (tmp.length == 0) ? NONE : tmp;
+    }
+
+    public static boolean isEnabled() {
+        return listeners.length > 0;
+    }
+
+    static void parsed(final String input, final long nanos, final Expression result) {
+        for (InstrumentationListener l : listeners) {
+            try {
+                l.parsed(input, nanos, result);
+            } catch (RuntimeException e) {
+                listenerFailed(l, e);
+            }
+        }
+    }
+
+    static void parseFailed(final String input, final long nanos, final RuntimeException error) {
+        for (InstrumentationListener l : listeners) {
+            try {
+                l.parseFailed(input, nanos, error);
+            } catch (RuntimeException e) {
+                listenerFailed(l, e);
+            }
+        }
+    }
+
+    static void operationCreated(final Operation.Type type, final int mergedOperations, final int removedDuplicates,
+                                 final int children) {
+        for (InstrumentationListener l : listeners) {
+            try {
+                l.operationCreated(type.name(), mergedOperations, removedDuplicates, children);
+            } catch (RuntimeException e) {
+                listenerFailed(l, e);
+            }
+        }
+    }
+
+    static void cacheAccessed(final String cache, final boolean hit) {
+        for (InstrumentationListener l : listeners) {
+            try {
+                l.cacheAccessed(cache, hit);
+            } catch (RuntimeException e) {
+                listenerFailed(l, e);
+            }
+        }
+    }
+
+    private static void listenerFailed(final InstrumentationListener listener, final RuntimeException error) {
+        LOGGER.log(Level.WARNING, "Instrumentation listener " + listener + " failed", error);
+    }
+}
@@ -0,0 +1,49 @@
+package de.ruderphilipp.variance;
+
+/**
+ * Gets informed about the work done by this library, e.g. for collecting metrics.
+ * <p>
+ * Implementations need to be thread-safe and fast, since they are called directly on the hot paths. All methods do
+ * nothing by default, so only the interesting events have to be implemented.
+ *
+ * @see Instrumentation#addListener(InstrumentationListener)
+ * @see MetricsRecorder
+ */
+public interface InstrumentationListener {
+
+    /**
+     * A variance expression was parsed successfully.
+     *
+     * @param input       the parsed text
+     * @param nanos       duration of the parsing
+     * @param result      the resulting tree
+     */
+    default void parsed(String input, long nanos, Expression result) {
+    }
+
+    /**
+     * Parsing of a variance expression failed.
+     */
+    default void parseFailed(String input, long nanos, RuntimeException error) {
+    }
+
+    /**
+     * An operation was created.
+     *
+     * @param type              the operation type, i.e. "AND" or "OR"
+     * @param mergedOperations  number of children with the same operation type whose children were moved into this one
+     * @param removedDuplicates number of children removed because they were duplicates
+     * @param children          number of remaining children
+     */
+    default void operationCreated(String type, int mergedOperations, int removedDuplicates, int children) {
+    }
+
+    /**
+     * A cache was asked for a value.
+     *
+     * @param cache name of the cache
+     * @param hit   whether the value was already present
+     */
+    default void cacheAccessed(String cache, boolean hit) {
+    }
+}
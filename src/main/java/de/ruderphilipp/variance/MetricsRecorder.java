@@ -0,0 +1,237 @@
+package de.ruderphilipp.variance;
+
+import javax.management.*;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Collects metrics about parsing and optimizing of variance expressions.
+ * <p>
+ * Usage:
+ * <pre>
+ * MetricsRecorder recorder = new MetricsRecorder();
+ * Instrumentation.addListener(recorder);
+ * recorder.register(); // optional: make it available via JMX
+ * </pre>
+ */
+public class MetricsRecorder implements InstrumentationListener, MetricsRecorderMBean {
+    public static final String OBJECT_NAME = "de.ruderphilipp.variance:type=Metrics";
+
+    private final Histogram parseNanos = new Histogram();
+    private final Histogram nodeCounts = new Histogram();
+    private final Histogram treeDepths = new Histogram();
+    private final ConcurrentMap<String, LongAdder> errors = new ConcurrentHashMap<>();
+
+    private final LongAdder inputAssignments = new LongAdder();
+    private final LongAdder outputAssignments = new LongAdder();
+
+    private final LongAdder operations = new LongAdder();
+    private final LongAdder mergedOperations = new LongAdder();
+    private final LongAdder duplicates = new LongAdder();
+
+    private final ConcurrentMap<String, LongAdder[]> caches = new ConcurrentHashMap<>();
+
+    @Override
+    public void parsed(final String input, final long nanos, final Expression result) {
+        parseNanos.record(nanos);
+        int[] stats = new int[3]; // nodes, depth, assignments
+        measure(result, 1, stats);
+        nodeCounts.record(stats[0]);
+        treeDepths.record(stats[1]);
+        inputAssignments.add(countAssignments(input));
+        outputAssignments.add(stats[2]);
+    }
+
+    @Override
+    public void parseFailed(final String input, final long nanos, final RuntimeException error) {
+        errors.computeIfAbsent(error.getClass().getSimpleName(), k -> new LongAdder()).increment();
+    }
+
+    @Override
+    public void operationCreated(final String type, final int mergedOperations, final int removedDuplicates,
+                                 final int children) {
+        operations.increment();
+        this.mergedOperations.add(mergedOperations);
+        duplicates.add(removedDuplicates);
+    }
+
+    @Override
+    public void cacheAccessed(final String cache, final boolean hit) {
+        LongAdder[] counters = caches.get(cache);
+        if (null == counters) {
+            counters = caches.computeIfAbsent(cache, k -> new LongAdder[]{new LongAdder(), new LongAdder()});
+        }
+        counters[hit ? 0 : 1].increment();
+    }
+
+    private static void measure(final Expression e, final int depth, final int[] stats) {
+        stats[0]++;
+        stats[1] = Math.max(stats[1], depth);
+        if (e instanceof Assignment) {
+            stats[2]++;
+        } else if (e instanceof Operation) {
+            for (Expression child : ((Operation) e).getElements()) {
+                measure(child, depth + 1, stats);
+            }
+        }
+    }
+
+    private static int countAssignments(final String input) {
+        int result = 0;
+        int index = input.indexOf(" = ");
+        while (index >= 0) {
+            result++;
+            index = input.indexOf(" = ", index + 1);
+        }
+        return result;
+    }
+
+    /**
+     * Makes this recorder available in the platform MBean server.
+     */
+    public void register() throws JMException {
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(OBJECT_NAME));
+    }
+
+    public void unregister() throws JMException {
+        ManagementFactory.getPlatformMBeanServer().unregisterMBean(new ObjectName(OBJECT_NAME));
+    }
+
+    @Override
+    public long getParseCount() {
+        return parseNanos.getCount();
+    }
+
+    @Override
+    public long getParseErrorCount() {
+        return errors.values().stream().mapToLong(LongAdder::sum).sum();
+    }
+
+    @Override
+    public Map<String, Long> getParseErrorsByType() {
+        Map<String, Long> result = new TreeMap<>();
+        errors.forEach((k, v) -> result.put(k, v.sum()));
+        return result;
+    }
+
+    @Override
+    public double getParseLatencyMeanMicros() {
+        return parseNanos.getMean() / 1000;
+    }
+
+    @Override
+    public long getParseLatencyP50Micros() {
+        return TimeUnit.NANOSECONDS.toMicros(parseNanos.getQuantile(0.5));
+    }
+
+    @Override
+    public long getParseLatencyP99Micros() {
+        return TimeUnit.NANOSECONDS.toMicros(parseNanos.getQuantile(0.99));
+    }
+
+    @Override
+    public long getParseLatencyMaxMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(parseNanos.getMax());
+    }
+
+    @Override
+    public double getNodeCountMean() {
+        return nodeCounts.getMean();
+    }
+
+    @Override
+    public long getNodeCountMax() {
+        return nodeCounts.getMax();
+    }
+
+    @Override
+    public long getNodeCountP50() {
+        return nodeCounts.getQuantile(0.5);
+    }
+
+    @Override
+    public long getNodeCountP99() {
+        return nodeCounts.getQuantile(0.99);
+    }
+
+    @Override
+    public long[] getNodeCountDistribution() {
+        return nodeCounts.getBuckets();
+    }
+
+    @Override
+    public double getTreeDepthMean() {
+        return treeDepths.getMean();
+    }
+
+    @Override
+    public long getTreeDepthMax() {
+        return treeDepths.getMax();
+    }
+
+    @Override
+    public long getTreeDepthP50() {
+        return treeDepths.getQuantile(0.5);
+    }
+
+    @Override
+    public long getTreeDepthP99() {
+        return treeDepths.getQuantile(0.99);
+    }
+
+    @Override
+    public long[] getTreeDepthDistribution() {
+        return treeDepths.getBuckets();
+    }
+
+    @Override
+    public long getOperationCount() {
+        return operations.sum();
+    }
+
+    @Override
+    public long getMergedOperationCount() {
+        return mergedOperations.sum();
+    }
+
+    @Override
+    public long getDuplicateChildCount() {
+        return duplicates.sum();
+    }
+
+    @Override
+    public double getReductionRatio() {
+        long in = inputAssignments.sum();
+        return (in == 0) ? 1 : (double) outputAssignments.sum() / in;
+    }
+
+    @Override
+    public Map<String, Double> getCacheHitRates() {
+        Map<String, Double> result = new TreeMap<>();
+        caches.forEach((k, v) -> {
+            long hits = v[0].sum();
+            long all = hits + v[1].sum();
+            result.put(k, (all == 0) ? 0 : (double) hits / all);
+        });
+        return result;
+    }
+
+    @Override
+    public void reset() {
+        parseNanos.reset();
+        nodeCounts.reset();
+        treeDepths.reset();
+        errors.clear();
+        inputAssignments.reset();
+        outputAssignments.reset();
+        operations.reset();
+        mergedOperations.reset();
+        duplicates.reset();
+        caches.clear();
+    }
+}
@@ -0,0 +1,65 @@
+package de.ruderphilipp.variance;
+
+import java.util.Map;
+
+/**
+ * JMX view of the {@link MetricsRecorder}.
+ */
+public interface MetricsRecorderMBean {
+    long getParseCount();
+
+    long getParseErrorCount();
+
+    Map<String, Long> getParseErrorsByType();
+
+    double getParseLatencyMeanMicros();
+
+    long getParseLatencyP50Micros();
+
+    long getParseLatencyP99Micros();
+
+    long getParseLatencyMaxMicros();
+
+    double getNodeCountMean();
+
+    long getNodeCountMax();
+
+    long getNodeCountP50();
+
+    long getNodeCountP99();
+
+    /**
+     * @return number of parsed trees per bucket, bucket <tt>i</tt> counts the trees with <tt>2^(i-1)</tt> up to
+     * <tt>2^i - 1</tt> nodes
+     */
+    long[] getNodeCountDistribution();
+
+    double getTreeDepthMean();
+
+    long getTreeDepthMax();
+
+    long getTreeDepthP50();
+
+    long getTreeDepthP99();
+
+    /**
+     * @return number of parsed trees per bucket, bucket <tt>i</tt> counts the trees with a depth of <tt>2^(i-1)</tt>
+     * up to <tt>2^i - 1</tt>
+     */
+    long[] getTreeDepthDistribution();
+
+    long getOperationCount();
+
+    long getMergedOperationCount();
+
+    long getDuplicateChildCount();
+
+    /**
+     * @return number of assignments in the parsed trees compared to the number of assignments in the input texts
+     */
+    double getReductionRatio();
+
+    Map<String, Double> getCacheHitRates();
+
+    void reset();
+}
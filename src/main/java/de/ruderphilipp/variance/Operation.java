@@ -1,6 +1,7 @@
 package de.ruderphilipp.variance;
 
 import java.util.*;
+import java.util.function.UnaryOperator;
 import java.util.stream.Collectors;
 
 /**
@@ -38,6 +39,9 @@ class Operation implements Expression {
         }
         // remove duplicates
         Set<Expression> mySet = new HashSet<>(sortedElements);
+        if (Instrumentation.isEnabled()) {
+            Instrumentation.operationCreated(type, sameOperationType.size(), sortedElements.size() - mySet.size(), mySet.size());
+        }
         sortedElements.clear();
         sortedElements.addAll(mySet);
         // do sorting (void operation!)
@@ -47,12 +51,20 @@ class Operation implements Expression {
     }
 
     public static Expression create(final Type type, final Collection<Expression> elements) {
+        return create(type, elements, UnaryOperator.identity());
+    }
+
+    /**
+     * @param interner returns the shared instance of an equal operation, if there is one
+     */
+    static Expression create(final Type type, final Collection<Expression> elements,
+                             final UnaryOperator<Expression> interner) {
         Operation op = new Operation(type, elements);
         // if only "... OR" / "... AND" is left after removing duplicates etc.
         if (op.getElements().size() == 1) {
             return op.getElements().get(0);
         } else {
-            return op;
+            return interner.apply(op);
         }
     }
 
@@ -89,7 +101,7 @@ class Operation implements Expression {
     public boolean equals(Object obj) {
         if (obj instanceof Operation) {
             Operation other = (Operation) obj;
-            if (other.getType().equals(this.getType()) ||
+            if (other.getType().equals(this.getType()) &&
                     other.getElements().equals(this.getElements())) {
                 return true;
             }
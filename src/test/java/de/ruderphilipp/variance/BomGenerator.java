@@ -0,0 +1,255 @@
+package de.ruderphilipp.variance;
+
+import java.util.*;
+
+/**
+ * Generates synthetic BoMs, i.e. lines with variance expressions.
+ * <p>
+ * Every line only depends on the seed and its index, thus huge BoMs can be streamed line by line and are the same on
+ * every run. Option families are called <tt>F0, F1, ...</tt> and their values <tt>V0, V1, ...</tt>.
+ */
+class BomGenerator {
+    private int families = 50;
+    private int valuesPerFamily = 10;
+    private int maxDepth = 3;
+    private int maxWidth = 4;
+    private int sharedClauses = 100;
+    private double sharedClauseProbability = 0.2;
+    private double malformedProbability = 0.0;
+    private final long seed;
+
+    private List<Clause> sharedClausePool;
+
+    BomGenerator(final long seed) {
+        this.seed = seed;
+    }
+
+    BomGenerator families(final int families) {
+        if (families < 1) {
+            throw new IllegalArgumentException("Need at least one option family!");
+        }
+        this.families = families;
+        return this;
+    }
+
+    BomGenerator valuesPerFamily(final int valuesPerFamily) {
+        if (valuesPerFamily < 1) {
+            throw new IllegalArgumentException("Need at least one value per option family!");
+        }
+        this.valuesPerFamily = valuesPerFamily;
+        return this;
+    }
+
+    BomGenerator maxDepth(final int maxDepth) {
+        if (maxDepth < 0) {
+            throw new IllegalArgumentException("Depth must not be negative!");
+        }
+        this.maxDepth = maxDepth;
+        return this;
+    }
+
+    BomGenerator maxWidth(final int maxWidth) {
+        if (maxWidth < 2) {
+            throw new IllegalArgumentException("An operation needs at least two children!");
+        }
+        this.maxWidth = maxWidth;
+        return this;
+    }
+
+    /**
+     * @param sharedClauses number of different sub-clauses that are reused between lines
+     * @param probability   chance that a child is taken from the shared sub-clauses
+     */
+    BomGenerator sharedClauses(final int sharedClauses, final double probability) {
+        if (sharedClauses < 0 || probability < 0 || probability > 1) {
+            throw new IllegalArgumentException("Invalid settings for shared sub-clauses!");
+        }
+        this.sharedClauses = sharedClauses;
+        this.sharedClauseProbability = probability;
+        this.sharedClausePool = null;
+        return this;
+    }
+
+    /**
+     * @param probability chance that a line is not a valid variance expression
+     */
+    BomGenerator malformed(final double probability) {
+        if (probability < 0 || probability > 1) {
+            throw new IllegalArgumentException("Probability must be between 0 and 1!");
+        }
+        this.malformedProbability = probability;
+        return this;
+    }
+
+    Map<String, List<String>> getDomains() {
+        Map<String, List<String>> result = new HashMap<>();
+        for (int f = 0; f < families; f++) {
+            List<String> values = new ArrayList<>(valuesPerFamily);
+            for (int v = 0; v < valuesPerFamily; v++) {
+                values.add("V" + v);
+            }
+            result.put("F" + f, values);
+        }
+        return result;
+    }
+
+    /**
+     * @return whether the line with the given index is malformed on purpose
+     */
+    boolean isMalformed(final long index) {
+        return random(index).nextDouble() < malformedProbability;
+    }
+
+    String line(final long index) {
+        Random random = random(index);
+        if (random.nextDouble() < malformedProbability) {
+            return malformedLine(random);
+        }
+        return clause(random).toString();
+    }
+
+    /**
+     * Builds the tree of a line directly from the generated structure, i.e. without parsing the text.
+     */
+    Expression tree(final long index) {
+        return validClause(index).toExpression();
+    }
+
+    /**
+     * Evaluates the generated structure of a line as it is, i.e. without merging, removing duplicates or sorting.
+     *
+     * @return a mask of all configurations of the batch that satisfy the line
+     */
+    long evaluate(final long index, final ConfigurationBatch batch) {
+        return validClause(index).evaluate(batch);
+    }
+
+    private Clause validClause(final long index) {
+        Random random = random(index);
+        if (random.nextDouble() < malformedProbability) {
+            throw new IllegalStateException("Line " + index + " is malformed!");
+        }
+        return clause(random);
+    }
+
+    private Clause clause(final Random random) {
+        boolean and = random.nextBoolean();
+        return expression(random, maxDepth, and, true);
+    }
+
+    private Random random(final long index) {
+        // mix seed and index (see SplitMix64), so that neighbouring lines are not correlated
+        long z = seed + (index + 1) * 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return new Random(z ^ (z >>> 31));
+    }
+
+    private Clause expression(final Random random, final int depth, final boolean and, final boolean allowShared) {
+        if (depth == 0) {
+            return new Clause(assignment(random));
+        }
+        int width = 2 + random.nextInt(maxWidth - 1);
+        List<Clause> children = new ArrayList<>(width);
+        for (int i = 0; i < width; i++) {
+            if (allowShared && sharedClauses > 0 && random.nextDouble() < sharedClauseProbability) {
+                children.add(sharedClause(random.nextInt(sharedClauses)));
+            } else if (random.nextInt(depth + 1) == 0) {
+                children.add(new Clause(assignment(random)));
+            } else {
+                children.add(expression(random, depth - 1, !and, allowShared));
+            }
+        }
+        return new Clause(and ? Operation.Type.AND : Operation.Type.OR, children);
+    }
+
+    private Assignment assignment(final Random random) {
+        return new Assignment("F" + random.nextInt(families), "V" + random.nextInt(valuesPerFamily));
+    }
+
+    private synchronized Clause sharedClause(final int index) {
+        if (null == sharedClausePool) {
+            List<Clause> pool = new ArrayList<>(sharedClauses);
+            Random random = new Random(seed);
+            for (int i = 0; i < sharedClauses; i++) {
+                pool.add(expression(random, 1, random.nextBoolean(), false));
+            }
+            sharedClausePool = pool;
+        }
+        return sharedClausePool.get(index);
+    }
+
+    private String malformedLine(final Random random) {
+        switch (random.nextInt(4)) {
+            case 0:
+                // parenthesis not closed
+                return "(" + assignment(random).getExpressionAsString() + " OR " + assignment(random).getExpressionAsString();
+            case 1:
+                // AND and OR on the same level
+                return assignment(random).getExpressionAsString() + " AND " + assignment(random).getExpressionAsString()
+                        + " OR " + assignment(random).getExpressionAsString();
+            case 2:
+                // value missing
+                return "F" + random.nextInt(families) + " = ";
+            default:
+                // no assignment at all
+                return "F" + random.nextInt(families);
+        }
+    }
+
+    /**
+     * A generated line as it is written, i.e. with nested operations of the same type and duplicates.
+     */
+    private static final class Clause {
+        private final Assignment assignment;
+        private final Operation.Type type;
+        private final List<Clause> children;
+
+        Clause(final Assignment assignment) {
+            this.assignment = assignment;
+            this.type = null;
+            this.children = Collections.emptyList();
+        }
+
+        Clause(final Operation.Type type, final List<Clause> children) {
+            this.assignment = null;
+            this.type = type;
+            this.children = children;
+        }
+
+        Expression toExpression() {
+            if (null != assignment) {
+                return assignment;
+            }
+            List<Expression> elements = new ArrayList<>(children.size());
+            for (Clause child : children) {
+                elements.add(child.toExpression());
+            }
+            return Operation.create(type, elements);
+        }
+
+        long evaluate(final ConfigurationBatch batch) {
+            if (null != assignment) {
+                return batch.evaluate(assignment);
+            }
+            long result = (type == Operation.Type.AND) ? batch.getAll() : 0L;
+            for (Clause child : children) {
+                long mask = child.evaluate(batch);
+                result = (type == Operation.Type.AND) ? result & mask : result | mask;
+            }
+            return result;
+        }
+
+        @Override
+        public String toString() {
+            if (null != assignment) {
+                return assignment.getExpressionAsString();
+            }
+            StringJoiner joiner = new StringJoiner(" " + type + " ");
+            for (Clause child : children) {
+                joiner.add((null == child.assignment) ? "(" + child + ")" : child.toString());
+            }
+            return joiner.toString();
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package de.ruderphilipp.variance;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BoundedCacheTest {
+
+    @Test
+    void shouldNotAcceptNegativeSize() {
+        assertThrows(IllegalArgumentException.class, () -> new BoundedCache<String, String>(-1));
+    }
+
+    @Test
+    void shouldReturnExistingValue() {
+        BoundedCache<String, String> cache = new BoundedCache<>(10);
+        assertNull(cache.get("a"));
+        String first = new String("A");
+        assertSame(first, cache.intern("a", first));
+        assertSame(first, cache.intern("a", new String("A")));
+        assertSame(first, cache.get("a"));
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    void shouldEvictLeastRecentlyUsed() {
+        BoundedCache<Integer, Integer> cache = new BoundedCache<>(64);
+        for (int i = 0; i < 10_000; i++) {
+            cache.intern(i, i);
+            // used all the time, so it must never get evicted
+            assertEquals(Integer.valueOf(-1), cache.intern(-1, -1));
+        }
+        assertTrue(cache.size() <= 64, "size: " + cache.size());
+        assertNotNull(cache.get(9_999));
+        assertNull(cache.get(0));
+    }
+
+    @Test
+    void shouldStayBoundedUnderConcurrentUse() throws Exception {
+        BoundedCache<Integer, Integer> cache = new BoundedCache<>(1_000);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                final int seed = t;
+                futures.add(executor.submit(() -> {
+                    Random random = new Random(seed);
+                    for (int i = 0; i < 100_000; i++) {
+                        int key = random.nextInt(5_000);
+                        assertEquals(Integer.valueOf(key), cache.intern(key, key));
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> f : futures) {
+                f.get(1, TimeUnit.MINUTES);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        // each thread might add one entry to a generation that is being rotated, and one to the new one
+        assertTrue(cache.size() <= 1_000 + 2 * 4, "size: " + cache.size());
+    }
+}
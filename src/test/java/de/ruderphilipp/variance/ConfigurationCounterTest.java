@@ -0,0 +1,162 @@
+package de.ruderphilipp.variance;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigInteger;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConfigurationCounterTest {
+
+    private static Map<String, List<String>> pizzaDomains() {
+        Map<String, List<String>> domains = new HashMap<>();
+        domains.put("base", Arrays.asList("tomato", "hollandaise", "nothing"));
+        domains.put("topping", Arrays.asList("salami", "ham", "tuna", "mushrooms"));
+        domains.put("cheese", Arrays.asList("mozzarella", "gouda"));
+        return domains;
+    }
+
+    @Test
+    void shouldNotAcceptEmptyDomains() {
+        assertThrows(IllegalArgumentException.class, () -> new ConfigurationCounter(null));
+        Map<String, List<String>> domains = new HashMap<>();
+        domains.put("base", Collections.emptyList());
+        assertThrows(IllegalArgumentException.class, () -> new ConfigurationCounter(domains));
+    }
+
+    @Test
+    void shouldNotAcceptUnknownFamily() {
+        ConfigurationCounter counter = new ConfigurationCounter(pizzaDomains());
+        assertThrows(IllegalArgumentException.class, () -> counter.count(ExpressionBuilder.build("size = XXL")));
+    }
+
+    @Test
+    void shouldCountTotal() {
+        ConfigurationCounter counter = new ConfigurationCounter(pizzaDomains());
+        assertEquals(BigInteger.valueOf(24), counter.getTotal());
+        assertEquals(BigInteger.valueOf(24), counter.count(ExpressionBuilder.build("")));
+    }
+
+    @Test
+    void shouldCountSingleAssignment() {
+        ConfigurationCounter counter = new ConfigurationCounter(pizzaDomains());
+        assertEquals(BigInteger.valueOf(8), counter.count(ExpressionBuilder.build("base = tomato")));
+        assertEquals(BigInteger.ZERO, counter.count(ExpressionBuilder.build("base = ketchup")));
+        assertEquals(1.0 / 3, counter.selectivity(ExpressionBuilder.build("base = tomato")), 1e-12);
+    }
+
+    @Test
+    void shouldCountSharedFamilies() {
+        ConfigurationCounter counter = new ConfigurationCounter(pizzaDomains());
+        // same family twice in an AND can never be true
+        assertEquals(BigInteger.ZERO, counter.count(ExpressionBuilder.build("base = tomato AND base = nothing")));
+        assertEquals(BigInteger.valueOf(16), counter.count(ExpressionBuilder.build("base = tomato OR base = nothing")));
+        assertEquals(BigInteger.valueOf(13),
+                counter.count(ExpressionBuilder.build("(base = tomato AND cheese = gouda) OR (base = nothing AND topping = ham) OR cheese = gouda")));
+    }
+
+    @Test
+    void shouldCountCoverageOfBom() {
+        ConfigurationCounter counter = new ConfigurationCounter(pizzaDomains());
+        List<Expression> bom = Arrays.asList(
+                ExpressionBuilder.build("base = tomato OR base = hollandaise"),
+                ExpressionBuilder.build("topping = salami OR cheese = gouda"));
+        // 16 configurations with tomato or hollandaise, plus 5 of the 8 without base that have salami or gouda
+        assertEquals(BigInteger.valueOf(21), counter.coverage(bom));
+        assertEquals(bruteForce(pizzaDomains(), bom), counter.coverage(bom));
+        assertEquals(2, counter.selectivities(bom).size());
+        assertEquals(BigInteger.ZERO, counter.coverage(Collections.emptyList()));
+    }
+
+    @Test
+    void shouldMatchEnumerationForGeneratedBom() {
+        BomGenerator generator = new BomGenerator(4711).families(6).valuesPerFamily(3).maxDepth(2);
+        ConfigurationCounter counter = new ConfigurationCounter(generator.getDomains());
+        List<Expression> bom = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            bom.add(ExpressionBuilder.build(generator.line(i)));
+            assertEquals(bruteForce(generator.getDomains(), bom), counter.coverage(bom), "first " + (i + 1) + " lines");
+        }
+        BigInteger covered = counter.coverage(bom);
+        assertTrue(covered.signum() > 0);
+        assertTrue(covered.compareTo(counter.getTotal()) <= 0);
+    }
+
+    @Test
+    void shouldMatchEnumerationForRandomExpressions() {
+        Random random = new Random(4711);
+        Map<String, List<String>> domains = new HashMap<>();
+        for (int f = 0; f < 5; f++) {
+            List<String> values = new ArrayList<>();
+            for (int v = 0; v < 2 + f; v++) {
+                values.add("V" + v);
+            }
+            domains.put("F" + f, values);
+        }
+        ConfigurationCounter counter = new ConfigurationCounter(domains);
+
+        for (int i = 0; i < 200; i++) {
+            Expression e = ExpressionBuilder.build(randomExpression(random, 3));
+            assertEquals(bruteForce(domains, Collections.singletonList(e)), counter.count(e), e.getExpressionAsString());
+        }
+    }
+
+    private static String randomExpression(final Random random, final int depth) {
+        if (depth == 0 || random.nextInt(3) == 0) {
+            // "V7" is never part of the domain
+            return "F" + random.nextInt(5) + " = V" + random.nextInt(8);
+        }
+        String operator = random.nextBoolean() ? " AND " : " OR ";
+        StringJoiner joiner = new StringJoiner(operator);
+        int width = 2 + random.nextInt(3);
+        for (int i = 0; i < width; i++) {
+            joiner.add("(" + randomExpression(random, depth - 1) + ")");
+        }
+        return joiner.toString();
+    }
+
+    /**
+     * @return the number of complete configurations that satisfy at least one of the lines
+     */
+    private static BigInteger bruteForce(final Map<String, List<String>> domains, final List<Expression> lines) {
+        List<String> families = new ArrayList<>(domains.keySet());
+        long count = 0;
+        for (Map<String, String> configuration : enumerate(domains, families, 0, new HashMap<>())) {
+            if (lines.stream().anyMatch(e -> matches(e, configuration))) {
+                count++;
+            }
+        }
+        return BigInteger.valueOf(count);
+    }
+
+    private static List<Map<String, String>> enumerate(final Map<String, List<String>> domains, final List<String> families,
+                                                       final int index, final Map<String, String> current) {
+        if (index == families.size()) {
+            return Collections.singletonList(new HashMap<>(current));
+        }
+        List<Map<String, String>> result = new ArrayList<>();
+        String family = families.get(index);
+        for (String value : domains.get(family)) {
+            current.put(family, value);
+            result.addAll(enumerate(domains, families, index + 1, current));
+        }
+        current.remove(family);
+        return result;
+    }
+
+    private static boolean matches(final Expression e, final Map<String, String> configuration) {
+        if (e instanceof BlankExpression) {
+            return true;
+        } else if (e instanceof Assignment) {
+            Assignment a = (Assignment) e;
+            return a.getValue().equals(configuration.get(a.getFamily()));
+        }
+        Operation op = (Operation) e;
+        if (op.getType() == Operation.Type.AND) {
+            return op.getElements().stream().allMatch(c -> matches(c, configuration));
+        } else {
+            return op.getElements().stream().anyMatch(c -> matches(c, configuration));
+        }
+    }
+}
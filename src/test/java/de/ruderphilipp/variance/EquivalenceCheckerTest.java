@@ -0,0 +1,142 @@
+package de.ruderphilipp.variance;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * By default only a small generated BoM gets verified. A bigger one, which is also measured, can be enabled with e.g.
+ * <tt>mvn test -Dtest=EquivalenceCheckerTest -Dvariance.verify.lines=20000</tt>.
+ */
+class EquivalenceCheckerTest {
+    private static final String LINES_PROPERTY = "variance.verify.lines";
+    private static final int BOM_LINES = Integer.getInteger(LINES_PROPERTY, 500);
+    // extrapolated time for verifying a BoM with one million lines, only checked if the number of lines is given
+    private static final double MAX_MINUTES_FOR_1M = Double.parseDouble(System.getProperty("variance.verify.maxMinutesFor1M", "10"));
+
+    private static Map<String, List<String>> domains() {
+        Map<String, List<String>> domains = new HashMap<>();
+        domains.put("F1", Arrays.asList("a", "b"));
+        domains.put("F2", Arrays.asList("a", "b"));
+        domains.put("F3", Arrays.asList("c", "d", "e"));
+        return domains;
+    }
+
+    @Test
+    void shouldProveEquivalentExpressions() {
+        EquivalenceChecker checker = new EquivalenceChecker(domains());
+        EquivalenceChecker.Result result = checker.check(
+                ExpressionBuilder.build("(F1 = a AND F3 = c) OR (F1 = a AND F3 = d)"),
+                ExpressionBuilder.build("F1 = a AND (F3 = c OR F3 = d)"));
+        assertTrue(result.isEquivalent());
+        assertEquals(EquivalenceChecker.Stage.EXACT, result.getStage());
+        assertNull(result.getCounterexample());
+    }
+
+    @Test
+    void shouldTreatUnknownValuesAsNeverSelected() {
+        EquivalenceChecker checker = new EquivalenceChecker(domains());
+        assertTrue(checker.check(
+                ExpressionBuilder.build("F3 = c OR F3 = x"),
+                ExpressionBuilder.build("F3 = c")).isEquivalent());
+    }
+
+    @Test
+    void shouldFindDifferenceBySimulation() {
+        EquivalenceChecker checker = new EquivalenceChecker(domains());
+        Expression a = ExpressionBuilder.build("F1 = a AND (F3 = c OR F3 = d)");
+        Expression b = ExpressionBuilder.build("F1 = a AND F3 = c");
+        EquivalenceChecker.Result result = checker.check(a, b);
+        assertFalse(result.isEquivalent());
+        assertEquals(EquivalenceChecker.Stage.SIMULATION, result.getStage());
+        assertDiffers(a, b, result.getCounterexample());
+    }
+
+    @Test
+    void shouldFindDifferenceMissedBySimulation() {
+        // without random configurations, the boundary cases never choose "a" for both families
+        EquivalenceChecker checker = new EquivalenceChecker(domains(), 0, 0L);
+        Expression a = ExpressionBuilder.build("F1 = a AND F2 = a");
+        Expression b = ExpressionBuilder.build("F3 = c AND F3 = d");
+        EquivalenceChecker.Result result = checker.check(a, b);
+        assertFalse(result.isEquivalent());
+        assertEquals(EquivalenceChecker.Stage.EXACT, result.getStage());
+        assertDiffers(a, b, result.getCounterexample());
+    }
+
+    @Test
+    void shouldVerifyAllLines() {
+        EquivalenceChecker checker = new EquivalenceChecker(domains());
+        List<Expression> originals = Arrays.asList(
+                ExpressionBuilder.build("F1 = a OR F1 = b"),
+                ExpressionBuilder.build("(F2 = a AND F3 = c) OR (F2 = a AND F3 = e)"));
+        List<Expression> optimized = Arrays.asList(
+                ExpressionBuilder.build(""),
+                ExpressionBuilder.build("F2 = a AND F3 = c"));
+        List<EquivalenceChecker.Result> results = checker.verify(originals, optimized);
+        assertEquals(2, results.size());
+        assertTrue(results.get(0).isEquivalent());
+        assertFalse(results.get(1).isEquivalent());
+
+        assertThrows(IllegalArgumentException.class, () -> checker.verify(originals, optimized.subList(0, 1)));
+    }
+
+    @Test
+    void shouldVerifyGeneratedBom() {
+        BomGenerator generator = new BomGenerator(4711);
+        List<Expression> originals = new ArrayList<>(BOM_LINES);
+        List<Expression> optimized = new ArrayList<>(BOM_LINES);
+        for (int i = 0; i < BOM_LINES; i++) {
+            originals.add(generator.tree(i));
+            optimized.add(ExpressionBuilder.build(generator.line(i)));
+        }
+        EquivalenceChecker checker = new EquivalenceChecker(generator.getDomains());
+        boolean measure = null != System.getProperty(LINES_PROPERTY);
+        if (measure) {
+            // warm up, so that the measurement is not dominated by the JIT
+            checker.verify(originals.subList(0, Math.min(1_000, BOM_LINES)), optimized.subList(0, Math.min(1_000, BOM_LINES)));
+        }
+
+        List<MemoryPoolMXBean> heapPools = heapPools();
+        long start = System.nanoTime();
+        List<EquivalenceChecker.Result> results = checker.verify(originals, optimized);
+        long nanos = System.nanoTime() - start;
+
+        assertEquals(BOM_LINES, results.size());
+        assertTrue(results.stream().allMatch(EquivalenceChecker.Result::isEquivalent));
+        assertTrue(results.stream().allMatch(r -> r.getStage() == EquivalenceChecker.Stage.EXACT));
+        if (measure) {
+            long peakHeap = 0;
+            for (MemoryPoolMXBean pool : heapPools) {
+                peakHeap += pool.getPeakUsage().getUsed();
+            }
+            double minutesFor1M = nanos / 1e9 / 60 * 1_000_000 / BOM_LINES;
+            System.out.println(String.format("verified %d lines in %d ms (%.1f min for 1M lines), peak heap %d MB",
+                    BOM_LINES, nanos / 1_000_000, minutesFor1M, peakHeap >> 20));
+            assertTrue(minutesFor1M < MAX_MINUTES_FOR_1M, String.format("%.1f minutes for 1M lines", minutesFor1M));
+        }
+    }
+
+    private static List<MemoryPoolMXBean> heapPools() {
+        System.gc();
+        List<MemoryPoolMXBean> result = new ArrayList<>();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.isValid()) {
+                pool.resetPeakUsage();
+                result.add(pool);
+            }
+        }
+        return result;
+    }
+
+    private static void assertDiffers(final Expression a, final Expression b, final Map<String, String> configuration) {
+        assertNotNull(configuration);
+        ConfigurationBatch batch = ConfigurationBatch.of(Collections.singletonList(configuration));
+        assertNotEquals(batch.evaluate(a), batch.evaluate(b), "no counterexample: " + configuration);
+    }
+}
@@ -0,0 +1,134 @@
+package de.ruderphilipp.variance;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ExecutionPlanTest {
+
+    private static Map<String, List<String>> domains() {
+        Map<String, List<String>> domains = new HashMap<>();
+        domains.put("color", Arrays.asList("red", "blue"));
+        domains.put("size", Arrays.asList("S", "M", "L", "XL", "XXL"));
+        domains.put("engine", Arrays.asList("petrol", "diesel", "electric", "hybrid"));
+        return domains;
+    }
+
+    private static Map<String, String> configuration(final String color, final String size, final String engine) {
+        Map<String, String> result = new HashMap<>();
+        result.put("color", color);
+        result.put("size", size);
+        result.put("engine", engine);
+        return result;
+    }
+
+    @Test
+    void shouldNotChangeCanonicalOrder() {
+        Expression e = ExpressionBuilder.build("color = red AND size = S");
+        ExecutionPlan plan = ExecutionPlan.of(e, new ConfigurationCounter(domains()));
+        assertEquals("size = S AND color = red", plan.getExecutionOrderAsString());
+        assertEquals("color = red AND size = S", e.getExpressionAsString());
+    }
+
+    @Test
+    void shouldPutMostSelectiveFirstUnderAnd() {
+        Expression e = ExpressionBuilder.build("color = red AND engine = diesel AND size = S");
+        ExecutionPlan plan = ExecutionPlan.of(e, new ConfigurationCounter(domains()));
+        assertEquals("size = S AND engine = diesel AND color = red", plan.getExecutionOrderAsString());
+    }
+
+    @Test
+    void shouldPutMostLikelyFirstUnderOr() {
+        Expression e = ExpressionBuilder.build("size = S OR (color = red AND engine = diesel) OR engine = petrol OR engine = hybrid OR color = blue");
+        ExecutionPlan plan = ExecutionPlan.of(e, new ConfigurationCounter(domains()));
+        assertEquals("color = blue OR engine = hybrid OR engine = petrol OR size = S OR (engine = diesel AND color = red)",
+                plan.getExecutionOrderAsString());
+    }
+
+    @Test
+    void shouldPreferCheapChildrenWithoutStatistics() {
+        Expression e = ExpressionBuilder.build("(color = red OR size = S OR size = M) AND engine = diesel");
+        assertEquals("engine = diesel AND (color = red OR size = M OR size = S)",
+                ExecutionPlan.of(e).getExecutionOrderAsString());
+    }
+
+    @Test
+    void shouldEvaluateLikeBatch() {
+        Expression e = ExpressionBuilder.build("(color = red AND (size = S OR size = M)) OR (engine = electric AND size = XXL)");
+        ExecutionPlan plan = ExecutionPlan.adaptive(e, null, 7);
+        Random random = new Random(3);
+        List<Map<String, String>> configurations = new ArrayList<>();
+        for (int i = 0; i < 64; i++) {
+            configurations.add(configuration(
+                    domains().get("color").get(random.nextInt(2)),
+                    domains().get("size").get(random.nextInt(5)),
+                    domains().get("engine").get(random.nextInt(4))));
+        }
+        long expected = ConfigurationBatch.of(configurations).evaluate(e);
+        for (int i = 0; i < configurations.size(); i++) {
+            assertEquals((expected >>> i & 1L) == 1L, plan.evaluate(configurations.get(i)), configurations.get(i).toString());
+        }
+        assertThrows(IllegalArgumentException.class, () -> plan.evaluate(null));
+    }
+
+    @Test
+    void shouldAdaptToObservedConfigurations() {
+        Expression e = ExpressionBuilder.build("color = red AND engine = diesel AND size = S");
+        ExecutionPlan plan = ExecutionPlan.adaptive(e, new ConfigurationCounter(domains()), 0);
+        assertEquals("size = S AND engine = diesel AND color = red", plan.getExecutionOrderAsString());
+
+        // everybody wants small diesels, but nobody a red car
+        for (int i = 0; i < 100; i++) {
+            assertFalse(plan.evaluate(configuration("blue", "S", "diesel")));
+        }
+        assertEquals("size = S AND engine = diesel AND color = red", plan.getExecutionOrderAsString());
+        plan.reorder();
+        assertEquals("color = red AND size = S AND engine = diesel", plan.getExecutionOrderAsString());
+    }
+
+    @Test
+    void shouldReorderWhileOtherThreadsEvaluate() throws Exception {
+        // more than 32 children, so that the sort does not fall back to a plain insertion sort
+        StringJoiner joiner = new StringJoiner(" OR ");
+        for (int i = 0; i < 80; i++) {
+            joiner.add("part = P" + i);
+        }
+        ExecutionPlan plan = ExecutionPlan.adaptive(ExpressionBuilder.build(joiner.toString()), null, 0);
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            CountDownLatch done = new CountDownLatch(3);
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 3; t++) {
+                final int seed = t;
+                futures.add(executor.submit(() -> {
+                    try {
+                        Random random = new Random(seed);
+                        for (int i = 0; i < 200_000; i++) {
+                            int part = random.nextInt(160);
+                            assertEquals(part < 80, plan.evaluate(Collections.singletonMap("part", "P" + part)));
+                        }
+                    } finally {
+                        done.countDown();
+                    }
+                    return null;
+                }));
+            }
+            // statistics change while sorting
+            futures.add(executor.submit(() -> {
+                while (done.getCount() > 0) {
+                    plan.reorder();
+                }
+                return null;
+            }));
+            for (Future<?> f : futures) {
+                f.get(1, TimeUnit.MINUTES);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -330,4 +330,20 @@ class ExpressionBuilderTest {
         Expression e = ExpressionBuilder.build(in);
         assertEquals("A = B OR A = C", e.getExpressionAsString());
     }
+
+    @Test
+    void shouldKeepChildrenWithSameValuesWhenMovingSameOperatorChild() {
+        // the children of both operations have pairwise the same values, but different families
+        String in = "(F17 = V3 OR F46 = V8) AND (F42 = V3 AND F42 = V8)";
+        Expression e = ExpressionBuilder.build(in);
+        assertEquals("(F17 = V3 OR F46 = V8) AND F42 = V3 AND F42 = V8", e.getExpressionAsString());
+    }
+
+    @Test
+    void shouldOnlyTreatSameFamilyAndValueAsEqual() {
+        assertEquals(new Assignment("AAA", "BBB"), new Assignment("AAA", "BBB"));
+        assertNotEquals(new Assignment("AAA", "BBB"), new Assignment("AAA", "CCC"));
+        assertNotEquals(new Assignment("AAA", "BBB"), new Assignment("CCC", "BBB"));
+        assertNotEquals(ExpressionBuilder.build("A = B OR A = C"), ExpressionBuilder.build("A = B OR A = D"));
+    }
 }
@@ -0,0 +1,195 @@
+package de.ruderphilipp.variance;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ExpressionServiceTest {
+
+    @Test
+    void shouldShareParsedTrees() {
+        try (ExpressionService service = new ExpressionService()) {
+            Expression a = service.parse("AAA = BBB OR CCC = DDD");
+            Expression b = service.parse("(CCC = DDD) OR (AAA = BBB)");
+            assertSame(a, b);
+            assertSame(a, service.parse("AAA = BBB OR CCC = DDD"));
+            assertEquals(2, service.getCacheSize());
+            assertEquals(3, service.getNodeCount());
+            assertEquals("AAA = BBB OR CCC = DDD", service.optimize("CCC = DDD OR AAA = BBB OR AAA = BBB"));
+            assertThrows(InvalidExpressionException.class, () -> service.parse("(AAA = BBB"));
+        }
+    }
+
+    @Test
+    void shouldShareSubClauses() {
+        try (ExpressionService service = new ExpressionService()) {
+            Operation a = (Operation) service.parse("(AAA = BBB OR CCC = DDD) AND EEE = FFF");
+            Operation b = (Operation) service.parse("GGG = HHH AND (CCC = DDD OR AAA = BBB)");
+            Expression shared = a.getElements().get(0);
+            assertEquals("AAA = BBB OR CCC = DDD", shared.getExpressionAsString());
+            assertSame(shared, b.getElements().get(0));
+            assertSame(((Operation) shared).getElements().get(0), service.parse("AAA = BBB"));
+        }
+    }
+
+    @Test
+    void shouldEvictBeyondLimit() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try (ExpressionService service = new ExpressionService(executor, 100)) {
+            for (int i = 0; i < 10_000; i++) {
+                service.parse("AAA = V" + i + " OR BBB = V" + i);
+            }
+            assertTrue(service.getCacheSize() <= 100, "cached texts: " + service.getCacheSize());
+            assertTrue(service.getNodeCount() <= 100, "interned nodes: " + service.getNodeCount());
+
+            // recently used texts are still cached, evicted ones get parsed again
+            Expression recent = service.parse("AAA = V9999 OR BBB = V9999");
+            assertSame(recent, service.parse("AAA = V9999 OR BBB = V9999"));
+            assertEquals("AAA = V0 OR BBB = V0", service.optimize("BBB = V0 OR AAA = V0"));
+            assertTrue(service.evaluate("AAA = V1", Collections.singletonMap("AAA", "V1")).get());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void shouldNotCacheWithoutLimit() {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try (ExpressionService service = new ExpressionService(executor, 0)) {
+            assertEquals("AAA = BBB", service.optimize("AAA = BBB"));
+            assertEquals(0, service.getCacheSize());
+            assertEquals(0, service.getNodeCount());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void shouldEvaluate() throws Exception {
+        try (ExpressionService service = new ExpressionService()) {
+            Map<String, String> configuration = new HashMap<>();
+            configuration.put("base", "tomato");
+            configuration.put("topping", "salami");
+            assertTrue(service.evaluate("base = tomato AND (topping = salami OR topping = ham)", configuration).get());
+            assertFalse(service.evaluate("base = tomato AND topping = tuna", configuration).get());
+            assertTrue(service.evaluate("", configuration).get());
+
+            ExecutionException e = assertThrows(ExecutionException.class, () -> service.evaluate("base = ", configuration).get());
+            assertTrue(e.getCause() instanceof IncompleteExpressionException);
+            assertThrows(ExecutionException.class, () -> service.evaluate("base = tomato", null).get());
+        }
+    }
+
+    @Test
+    void shouldNotSeeChangesOfConfigurationAfterCall() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        CountDownLatch blocked = new CountDownLatch(1);
+        // keep the only thread busy, so that the request is still pending while the map changes
+        executor.execute(() -> {
+            try {
+                blocked.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        try (ExpressionService service = new ExpressionService(executor, 10)) {
+            Map<String, String> configuration = new HashMap<>();
+            configuration.put("base", "tomato");
+            CompletableFuture<Boolean> tomato = service.evaluate("base = tomato", configuration);
+            configuration.put("base", "hollandaise");
+            configuration.put("topping", "salami");
+            CompletableFuture<Boolean> hollandaise = service.evaluate("base = tomato", configuration);
+            configuration.clear();
+            assertFalse(tomato.isDone());
+
+            blocked.countDown();
+            assertTrue(tomato.get(1, TimeUnit.MINUTES));
+            assertFalse(hollandaise.get(1, TimeUnit.MINUTES));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void shouldServeConcurrentClients() throws Exception {
+        BomGenerator generator = new BomGenerator(1234).families(20).valuesPerFamily(5).maxDepth(2);
+        try (ExpressionService service = new ExpressionService()) {
+            LoadResult result = new LoadGenerator(service, generator, 200).run(8, 5_000);
+            System.out.println(String.format("%d requests in %d ms (%.0f/s), %.1f configurations per batch",
+                    result.requests, result.nanos / 1_000_000, result.requests * 1e9 / result.nanos,
+                    (double) service.getEvaluationCount() / service.getBatchCount()));
+            assertEquals(0, result.mismatches.sum());
+            assertEquals(8 * 5_000, service.getEvaluationCount());
+            assertTrue(service.getCacheSize() <= 200);
+        }
+    }
+
+    /**
+     * Simulates several applications that send evaluation requests at the same time and compares every answer with
+     * an evaluation done by the client itself.
+     */
+    private static final class LoadGenerator {
+        private final ExpressionService service;
+        private final BomGenerator generator;
+        private final int distinctLines;
+
+        LoadGenerator(final ExpressionService service, final BomGenerator generator, final int distinctLines) {
+            this.service = service;
+            this.generator = generator;
+            this.distinctLines = distinctLines;
+        }
+
+        LoadResult run(final int clients, final int requestsPerClient) throws Exception {
+            Map<String, List<String>> domains = generator.getDomains();
+            List<String> families = new ArrayList<>(domains.keySet());
+            LoadResult result = new LoadResult();
+            ExecutorService pool = Executors.newFixedThreadPool(clients);
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<?>> futures = new ArrayList<>();
+            for (int c = 0; c < clients; c++) {
+                final long clientSeed = c;
+                futures.add(pool.submit(() -> {
+                    Random random = new Random(clientSeed);
+                    List<CompletableFuture<Boolean>> pending = new ArrayList<>();
+                    List<Boolean> expected = new ArrayList<>();
+                    start.await();
+                    for (int i = 0; i < requestsPerClient; i++) {
+                        String line = generator.line(random.nextInt(distinctLines));
+                        Map<String, String> configuration = new HashMap<>();
+                        for (String family : families) {
+                            List<String> values = domains.get(family);
+                            configuration.put(family, values.get(random.nextInt(values.size())));
+                        }
+                        pending.add(service.evaluate(line, configuration));
+                        expected.add(ExecutionPlan.of(service.parse(line)).evaluate(configuration));
+                    }
+                    for (int i = 0; i < pending.size(); i++) {
+                        if (!pending.get(i).get().equals(expected.get(i))) {
+                            result.mismatches.increment();
+                        }
+                    }
+                    return null;
+                }));
+            }
+            long begin = System.nanoTime();
+            start.countDown();
+            for (Future<?> f : futures) {
+                f.get(1, TimeUnit.MINUTES);
+            }
+            result.nanos = System.nanoTime() - begin;
+            result.requests = (long) clients * requestsPerClient;
+            pool.shutdown();
+            return result;
+        }
+    }
+
+    private static final class LoadResult {
+        final LongAdder mismatches = new LongAdder();
+        long requests;
+        long nanos;
+    }
+}
@@ -0,0 +1,175 @@
+package de.ruderphilipp.variance;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.math.BigInteger;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MetricsRecorderTest {
+
+    private MetricsRecorder recorder;
+
+    @BeforeEach
+    void setUp() {
+        recorder = new MetricsRecorder();
+        Instrumentation.addListener(recorder);
+    }
+
+    @AfterEach
+    void tearDown() {
+        Instrumentation.removeListener(recorder);
+    }
+
+    @Test
+    void shouldBeDisabledWithoutListener() {
+        Instrumentation.removeListener(recorder);
+        assertFalse(Instrumentation.isEnabled());
+        ExpressionBuilder.build("AAA = BBB");
+        assertEquals(0, recorder.getParseCount());
+    }
+
+    @Test
+    void shouldRecordParsing() {
+        ExpressionBuilder.build("AAA = BBB");
+        ExpressionBuilder.build("(A = B OR A = C) AND X = Y");
+        assertEquals(2, recorder.getParseCount());
+        assertEquals(3, recorder.getTreeDepthMax());
+        assertEquals(5, recorder.getNodeCountMax());
+        assertTrue(recorder.getParseLatencyMaxMicros() >= recorder.getParseLatencyP50Micros());
+        assertEquals(1.0, recorder.getReductionRatio(), 1e-9);
+    }
+
+    @Test
+    void shouldRecordDistributions() {
+        ExpressionBuilder.build("AAA = BBB");
+        ExpressionBuilder.build("AAA = CCC");
+        ExpressionBuilder.build("(A = B OR A = C) AND X = Y");
+
+        long[] nodes = recorder.getNodeCountDistribution();
+        assertEquals(2, nodes[1]); // 1 node
+        assertEquals(1, nodes[3]); // 4 - 7 nodes
+        assertEquals(3, Arrays.stream(nodes).sum());
+        assertEquals(1, recorder.getNodeCountP50());
+        assertEquals(5, recorder.getNodeCountP99());
+
+        long[] depths = recorder.getTreeDepthDistribution();
+        assertEquals(2, depths[1]); // depth 1
+        assertEquals(1, depths[2]); // depth 2 - 3
+        assertEquals(1, recorder.getTreeDepthP50());
+        assertEquals(3, recorder.getTreeDepthP99());
+    }
+
+    @Test
+    void shouldInformListenersAboutOperations() {
+        List<String> types = Collections.synchronizedList(new ArrayList<>());
+        InstrumentationListener listener = new InstrumentationListener() {
+            @Override
+            public void operationCreated(final String type, final int mergedOperations, final int removedDuplicates,
+                                         final int children) {
+                types.add(type + ":" + mergedOperations + ":" + removedDuplicates + ":" + children);
+            }
+        };
+        Instrumentation.addListener(listener);
+        try {
+            ExpressionBuilder.build("(A = B OR A = C) AND (X = Y AND Z = W) AND X = Y");
+        } finally {
+            Instrumentation.removeListener(listener);
+        }
+        assertEquals(Arrays.asList("OR:0:0:2", "AND:0:0:2", "AND:1:1:3"), types);
+    }
+
+    @Test
+    void shouldIgnoreFailingListeners() {
+        InstrumentationListener failing = new InstrumentationListener() {
+            @Override
+            public void parsed(final String input, final long nanos, final Expression result) {
+                throw new IllegalStateException("parsed");
+            }
+
+            @Override
+            public void parseFailed(final String input, final long nanos, final RuntimeException error) {
+                throw new IllegalStateException("parseFailed");
+            }
+
+            @Override
+            public void operationCreated(final String type, final int mergedOperations, final int removedDuplicates,
+                                         final int children) {
+                throw new IllegalStateException("operationCreated");
+            }
+
+            @Override
+            public void cacheAccessed(final String cache, final boolean hit) {
+                throw new IllegalStateException("cacheAccessed");
+            }
+        };
+        // registered before the recorder, so the recorder must still be notified
+        Instrumentation.removeListener(recorder);
+        Instrumentation.addListener(failing);
+        Instrumentation.addListener(recorder);
+        try {
+            Expression e = ExpressionBuilder.build("(A = B OR A = C) AND X = Y");
+            assertEquals("(A = B OR A = C) AND X = Y", e.getExpressionAsString());
+            assertThrows(IncompleteExpressionException.class, () -> ExpressionBuilder.build("AAA = "));
+            Map<String, List<String>> domains = new HashMap<>();
+            domains.put("A", Arrays.asList("B", "C", "D"));
+            domains.put("X", Arrays.asList("Y", "Z"));
+            assertEquals(BigInteger.valueOf(2), new ConfigurationCounter(domains).count(e));
+        } finally {
+            Instrumentation.removeListener(failing);
+        }
+        assertEquals(1, recorder.getParseCount());
+        assertEquals(1, recorder.getParseErrorCount());
+        assertEquals(Long.valueOf(1), recorder.getParseErrorsByType().get("IncompleteExpressionException"));
+    }
+
+    @Test
+    void shouldRecordErrorsByType() {
+        assertThrows(InvalidExpressionException.class, () -> ExpressionBuilder.build("(AAA = BBB"));
+        assertThrows(IncompleteExpressionException.class, () -> ExpressionBuilder.build("AAA = "));
+        assertThrows(IncompleteExpressionException.class, () -> ExpressionBuilder.build("AAA = "));
+        assertEquals(3, recorder.getParseErrorCount());
+        assertEquals(Long.valueOf(1), recorder.getParseErrorsByType().get("InvalidExpressionException"));
+        assertEquals(Long.valueOf(2), recorder.getParseErrorsByType().get("IncompleteExpressionException"));
+        assertEquals(0, recorder.getParseCount());
+    }
+
+    @Test
+    void shouldRecordOperationReductions() {
+        ExpressionBuilder.build("((A = B OR A = C) AND (A = B OR A = C)) OR ((A = B OR A = C) AND (A = B OR A = C))");
+        assertTrue(recorder.getDuplicateChildCount() > 0);
+        assertTrue(recorder.getMergedOperationCount() > 0);
+        assertEquals(2.0 / 8, recorder.getReductionRatio(), 1e-9);
+    }
+
+    @Test
+    void shouldRecordCacheHits() {
+        Map<String, List<String>> domains = new HashMap<>();
+        domains.put("A", Arrays.asList("B", "C"));
+        ConfigurationCounter counter = new ConfigurationCounter(domains);
+        counter.count(ExpressionBuilder.build("A = B"));
+        counter.count(ExpressionBuilder.build("A = B"));
+        assertEquals(0.5, recorder.getCacheHitRates().get(ConfigurationCounter.CACHE_NAME), 1e-9);
+
+        recorder.reset();
+        assertEquals(Collections.emptyMap(), recorder.getCacheHitRates());
+    }
+
+    @Test
+    void shouldBeAvailableViaJmx() throws Exception {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        recorder.register();
+        try {
+            ExpressionBuilder.build("AAA = BBB");
+            assertEquals(1L, server.getAttribute(new ObjectName(MetricsRecorder.OBJECT_NAME), "ParseCount"));
+        } finally {
+            recorder.unregister();
+        }
+    }
+}
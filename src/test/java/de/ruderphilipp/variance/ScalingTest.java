@@ -0,0 +1,144 @@
+package de.ruderphilipp.variance;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Parses, prints, round-trips and checks synthetic BoMs of growing size.
+ * <p>
+ * By default only the small sizes are used. Bigger ones can be enabled with e.g.
+ * <tt>mvn test -Dtest=ScalingTest -Dvariance.scaling.maxLines=10000000</tt>.
+ */
+class ScalingTest {
+    private static final long[] SIZES = {1_000, 10_000, 100_000, 1_000_000, 10_000_000};
+    private static final long MAX_LINES = Long.getLong("variance.scaling.maxLines", 10_000);
+    // how much slower (per line) a bigger BoM may be compared to the smallest measured one
+    private static final double MAX_SLOWDOWN = Double.parseDouble(System.getProperty("variance.scaling.maxSlowdown", "10"));
+    // every n-th line additionally gets checked for equivalence with the structure it was generated from
+    private static final int CHECK_EVERY = 100;
+
+    @Test
+    void generatorShouldBeDeterministic() {
+        BomGenerator a = new BomGenerator(42).malformed(0.1);
+        BomGenerator b = new BomGenerator(42).malformed(0.1);
+        BomGenerator c = new BomGenerator(43).malformed(0.1);
+        boolean different = false;
+        for (long i = 0; i < 100; i++) {
+            assertEquals(a.line(i), b.line(i));
+            different |= !a.line(i).equals(c.line(i));
+        }
+        assertTrue(different, "seed is ignored");
+        // random access gives the same result as sequential access
+        assertEquals(a.line(7), new BomGenerator(42).malformed(0.1).line(7));
+    }
+
+    @Test
+    void malformedLinesShouldBeRejected() {
+        BomGenerator generator = new BomGenerator(7).malformed(0.5);
+        int malformed = 0;
+        for (long i = 0; i < 1_000; i++) {
+            String line = generator.line(i);
+            if (generator.isMalformed(i)) {
+                malformed++;
+                assertThrows(IllegalArgumentException.class, () -> ExpressionBuilder.build(line), line);
+            } else {
+                assertNotNull(ExpressionBuilder.build(line), line);
+            }
+        }
+        assertTrue(malformed > 0);
+    }
+
+    @Test
+    void shouldScaleLinear() {
+        BomGenerator generator = new BomGenerator(4711).malformed(0.001);
+        EquivalenceChecker checker = new EquivalenceChecker(generator.getDomains(), 4, 4711);
+
+        // warm up, so that the first measurement is not dominated by the JIT
+        run(generator, checker, SIZES[0]);
+
+        System.out.println(String.format("%12s %12s %14s %12s %14s", "lines", "malformed", "lines/s", "ns/line", "peak heap MB"));
+        double baseline = -1;
+        for (long size : SIZES) {
+            if (size > MAX_LINES) {
+                break;
+            }
+            Measurement m = run(generator, checker, size);
+            System.out.println(String.format("%12d %12d %14.0f %12.0f %14d",
+                    size, m.malformed, size * 1e9 / m.nanos, m.nanos / (double) size, m.peakHeap >> 20));
+            double perLine = m.nanos / (double) size;
+            if (baseline < 0) {
+                baseline = perLine;
+            } else {
+                assertTrue(perLine < baseline * MAX_SLOWDOWN,
+                        String.format("%d lines took %.0f ns/line, baseline is %.0f ns/line", size, perLine, baseline));
+            }
+        }
+    }
+
+    private static Measurement run(final BomGenerator generator, final EquivalenceChecker checker, final long lines) {
+        System.gc();
+        List<MemoryPoolMXBean> heapPools = new ArrayList<>();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.isValid()) {
+                pool.resetPeakUsage();
+                heapPools.add(pool);
+            }
+        }
+
+        ConfigurationBatch batch = randomBatch(generator.getDomains(), new Random(lines));
+        Measurement result = new Measurement();
+        long start = System.nanoTime();
+        for (long i = 0; i < lines; i++) {
+            String line = generator.line(i);
+            Expression parsed;
+            try {
+                parsed = ExpressionBuilder.build(line);
+            } catch (IllegalArgumentException e) {
+                assertTrue(generator.isMalformed(i), "valid line rejected: " + line);
+                result.malformed++;
+                continue;
+            }
+            assertFalse(generator.isMalformed(i), "malformed line accepted: " + line);
+
+            // printing the optimized tree and parsing it again must give the same tree
+            String printed = parsed.getExpressionAsString();
+            Expression reparsed = ExpressionBuilder.build(printed);
+            assertEquals(printed, reparsed.getExpressionAsString(), line);
+
+            // the optimized tree must select the same configurations as the line as it was generated
+            assertEquals(generator.evaluate(i, batch), batch.evaluate(parsed), line);
+            if (i % CHECK_EVERY == 0) {
+                EquivalenceChecker.Result r = checker.check(generator.tree(i), parsed);
+                assertTrue(r.isEquivalent(), () -> line + " differs for " + r.getCounterexample());
+            }
+        }
+        result.nanos = System.nanoTime() - start;
+        for (MemoryPoolMXBean pool : heapPools) {
+            result.peakHeap += pool.getPeakUsage().getUsed();
+        }
+        return result;
+    }
+
+    private static ConfigurationBatch randomBatch(final Map<String, List<String>> domains, final Random random) {
+        ConfigurationBatch batch = new ConfigurationBatch(ConfigurationBatch.MAX_SIZE);
+        for (Map.Entry<String, List<String>> entry : domains.entrySet()) {
+            List<String> values = entry.getValue();
+            for (int i = 0; i < batch.getSize(); i++) {
+                batch.set(i, entry.getKey(), values.get(random.nextInt(values.size())));
+            }
+        }
+        return batch;
+    }
+
+    private static final class Measurement {
+        long nanos;
+        long peakHeap;
+        long malformed;
+    }
+}